@@ -0,0 +1,181 @@
+package edu.jmu.decaf;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Computes a content hash of an AST subtree from a canonical, pre-order
+ * rendering of its nodes (kind, names, types, operators, literal values and
+ * line numbers relative to the first node). Two subtrees with the same
+ * fingerprint produce the same analysis results, with the positions in their
+ * error messages shifted by the distance between their first lines; moving
+ * a function up or down the file does not change its fingerprint.
+ *
+ * Also records the names of all functions called from the subtree, so
+ * callers can tell which code depends on a changed function signature.
+ */
+public class ASTFingerprint extends DefaultASTVisitor
+{
+    private static final int FLUSH_SIZE = 4096;
+
+    private final MessageDigest digest;
+    private final StringBuilder buffer = new StringBuilder();
+    private final Set<String> callees = new HashSet<String>();
+    private int firstLine = -1;
+
+    public ASTFingerprint()
+    {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Fingerprint a single subtree.
+     * @param node root of the subtree
+     * @return hexadecimal digest
+     */
+    public static String of(ASTNode node)
+    {
+        ASTFingerprint fp = new ASTFingerprint();
+        node.traverse(fp);
+        return fp.getDigest();
+    }
+
+    /**
+     * @return hexadecimal digest of everything visited so far
+     */
+    public String getDigest()
+    {
+        flush();
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return names of all functions called from the visited nodes
+     */
+    public Set<String> getCallees()
+    {
+        return callees;
+    }
+
+    /**
+     * Append one node to the canonical form.
+     */
+    protected void add(ASTNode node, Object... fields)
+    {
+        buffer.append(node.getClass().getSimpleName());
+        for (Object f : fields) {
+            buffer.append(' ').append(f);
+        }
+        int line = node.getSourceInfo().lineNumber;
+        if (firstLine < 0) {
+            firstLine = line;
+        }
+        buffer.append(" @").append(line - firstLine);
+        buffer.append('\n');
+        if (buffer.length() > FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush()
+    {
+        digest.update(buffer.toString().getBytes(StandardCharsets.UTF_8));
+        buffer.setLength(0);
+    }
+
+    public void preVisit(ASTProgram node)
+    {
+        add(node, node.variables.size(), node.functions.size());
+    }
+
+    public void preVisit(ASTVariable node)
+    {
+        add(node, node.name, node.type, node.arrayLength);
+    }
+
+    public void preVisit(ASTFunction node)
+    {
+        StringBuilder params = new StringBuilder();
+        for (ASTFunction.Parameter p : node.parameters) {
+            params.append(p.type).append(':').append(p.name).append(',');
+        }
+        add(node, node.name, node.returnType, params);
+    }
+
+    public void preVisit(ASTBlock node)
+    {
+        add(node, node.variables.size(), node.statements.size());
+    }
+
+    public void preVisit(ASTAssignment node)
+    {
+        add(node);
+    }
+
+    public void preVisit(ASTVoidFunctionCall node)
+    {
+        callees.add(node.name);
+        add(node, node.name, node.arguments.size());
+    }
+
+    public void preVisit(ASTConditional node)
+    {
+        add(node, node.hasElseBlock());
+    }
+
+    public void preVisit(ASTWhileLoop node)
+    {
+        add(node);
+    }
+
+    public void preVisit(ASTReturn node)
+    {
+        add(node, node.hasValue());
+    }
+
+    public void preVisit(ASTBreak node)
+    {
+        add(node);
+    }
+
+    public void preVisit(ASTContinue node)
+    {
+        add(node);
+    }
+
+    public void preVisit(ASTBinaryExpr node)
+    {
+        add(node, node.operator);
+    }
+
+    public void preVisit(ASTUnaryExpr node)
+    {
+        add(node, node.operator);
+    }
+
+    public void preVisit(ASTLocation node)
+    {
+        add(node, node.name, node.hasIndex());
+    }
+
+    public void preVisit(ASTFunctionCall node)
+    {
+        callees.add(node.name);
+        add(node, node.name, node.arguments.size());
+    }
+
+    public void preVisit(ASTLiteral node)
+    {
+        add(node, node.type, node.value);
+    }
+}
@@ -0,0 +1,301 @@
+package edu.jmu.decaf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Persistent cache of analysis results, keyed by a hash of the source text.
+ * Each entry stores the diagnostics and the global symbol signatures of one
+ * program in a small binary file under the cache directory, so unchanged
+ * sources can skip lexing, parsing and static analysis entirely.
+ *
+ * Entries are written to a temporary file and atomically renamed into place,
+ * so several processes may share one directory; readers only ever see
+ * complete entries. The directory is kept under a size bound by evicting
+ * the least recently used entries (by file modification time, which is
+ * refreshed on every hit). The total size is tracked in memory, so the
+ * directory is only listed on the first store and when the bound is
+ * exceeded; entries stored by other processes are counted at that point.
+ * Temporary files left behind by a writer that crashed are deleted then,
+ * too.
+ */
+public class AnalysisCache
+{
+    /**
+     * Bump whenever the analysis rules or the entry layout change, so old
+     * entries are no longer found. Version 2: returns, breaks and continues
+     * are checked at any nesting depth.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0xDECAFCAC;
+    private static final String SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Age after which a temporary file is taken to be left over from a
+     * writer that never renamed it into place.
+     */
+    private static final long STALE_TMP_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * A cached analysis result.
+     */
+    public static class Entry
+    {
+        /** Static analysis errors, in report order. */
+        public final List<String> errors;
+        /** Global variable and function symbols, in declaration order. */
+        public final List<Symbol> globals;
+
+        public Entry(List<String> errors, List<Symbol> globals)
+        {
+            this.errors = errors;
+            this.globals = globals;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Size of the directory as of the last scan plus the stores made since,
+     * or -1 before the first scan.
+     */
+    private long size = -1;
+
+    /**
+     * @param directory cache directory (created if needed)
+     * @param maxBytes total size the cache is trimmed to once a store
+     *        exceeds it
+     */
+    public AnalysisCache(File directory, long maxBytes)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+    }
+
+    /**
+     * Compute the cache key of a source text.
+     */
+    public static String key(String text)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(("decaf-analysis-" + FORMAT_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+            byte[] hash = md.digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Look up an entry.
+     * @return the entry, or null if it is missing or unreadable
+     */
+    public Entry get(String key)
+    {
+        File file = new File(directory, key + SUFFIX);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Entry entry = read(in);
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (FileNotFoundException ex) {
+            return null;
+        } catch (IOException ex) {
+            // truncated or foreign file; drop it and treat as a miss
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the result of analyzing a program.
+     * @param key key of the program's source text
+     * @param errors static analysis errors
+     * @param program analyzed program (source of the global signatures)
+     */
+    public void put(String key, List<String> errors, ASTProgram program)
+            throws IOException
+    {
+        List<Symbol> globals = new ArrayList<Symbol>();
+        for (ASTVariable v : program.variables) {
+            globals.add(new Symbol(v.name, v.type, v.arrayLength));
+        }
+        for (ASTFunction f : program.functions) {
+            List<ASTNode.DataType> ptypes = new ArrayList<ASTNode.DataType>();
+            for (ASTFunction.Parameter p : f.parameters) {
+                ptypes.add(p.type);
+            }
+            globals.add(new Symbol(f.name, f.returnType, ptypes));
+        }
+        put(key, new Entry(errors, globals));
+    }
+
+    /**
+     * Store an entry atomically and trim the cache to its size bound.
+     */
+    public void put(String key, Entry entry) throws IOException
+    {
+        File tmp = File.createTempFile(key, TMP_SUFFIX, directory);
+        DataOutputStream out = null;
+        long added;
+        long replaced;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            write(out, entry);
+            out.close();
+            out = null;
+            File target = new File(directory, key + SUFFIX);
+            added = tmp.length();
+            replaced = target.length();
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            closeQuietly(out);
+            tmp.delete();
+        }
+        synchronized (this) {
+            if (size >= 0) {
+                size += added - replaced;
+            }
+            if (size < 0 || size > maxBytes) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Measure the directory, delete stale temporary files and then the least
+     * recently used entries until the cache fits its bound. Entries removed
+     * concurrently by another process are simply skipped.
+     */
+    protected synchronized void evict()
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        long stale = System.currentTimeMillis() - STALE_TMP_MILLIS;
+        List<File> entries = new ArrayList<File>();
+        final Map<File, Long> used = new HashMap<File, Long>();
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                entries.add(f);
+                used.put(f, f.lastModified());
+                total += f.length();
+            } else if (f.getName().endsWith(TMP_SUFFIX)) {
+                long length = f.length();
+                if (f.lastModified() >= stale || !f.delete()) {
+                    // still being written (or not ours to delete)
+                    total += length;
+                }
+            }
+        }
+        size = total;
+        if (total <= maxBytes) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(used.get(a), used.get(b));
+            }
+        });
+        for (File f : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+        size = total;
+    }
+
+    private static void write(DataOutputStream out, Entry entry) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(entry.errors.size());
+        for (String e : entry.errors) {
+            out.writeUTF(e);
+        }
+        out.writeInt(entry.globals.size());
+        for (Symbol s : entry.globals) {
+            out.writeUTF(s.name);
+            out.writeUTF(s.type.name());
+            if (s.location == Symbol.MemLoc.STATIC_FUNC) {
+                out.writeInt(-1 - s.ptypes.size());
+                for (ASTNode.DataType t : s.ptypes) {
+                    out.writeUTF(t.name());
+                }
+            } else {
+                out.writeInt(s.length);
+            }
+        }
+    }
+
+    private static Entry read(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("not a cache entry");
+        }
+        try {
+            int count = in.readInt();
+            List<String> errors = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                errors.add(in.readUTF());
+            }
+            count = in.readInt();
+            List<Symbol> globals = new ArrayList<Symbol>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                ASTNode.DataType type = ASTNode.DataType.valueOf(in.readUTF());
+                int length = in.readInt();
+                if (length < 0) {
+                    List<ASTNode.DataType> ptypes = new ArrayList<ASTNode.DataType>();
+                    for (int p = 0; p < -1 - length; p++) {
+                        ptypes.add(ASTNode.DataType.valueOf(in.readUTF()));
+                    }
+                    globals.add(new Symbol(name, type, ptypes));
+                } else {
+                    globals.add(new Symbol(name, type, length));
+                }
+            }
+            return new Entry(errors, globals);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("corrupt cache entry", ex);
+        }
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ex) {
+                // nothing useful to do
+            }
+        }
+    }
+}
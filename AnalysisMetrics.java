@@ -0,0 +1,150 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Counters and timings collected while analyzing one program: wall time per
+ * pass, AST nodes, symbol table lookups, scopes created and diagnostics
+ * reported. Lookups are counted where a table is searched (name resolution,
+ * or {@link TypeCheck#lookupSymbol} for a node without a binding), not when
+ * a binding is read back. Lookup hops are the steps from a node to its
+ * parent that {@link TypeCheck#lookupSymbol} takes to find a scope; name
+ * resolution keeps a stack of scopes and takes none.
+ *
+ * Metrics are off unless {@link AnalysisSession#enableMetrics()} was called;
+ * passes then find a null {@link AnalysisSession#getMetrics()} and skip all
+ * counting. A metrics object belongs to a single session and is not
+ * thread-safe; concurrent workers collect into their own sessions and are
+ * combined with {@link #merge}.
+ */
+public class AnalysisMetrics
+{
+    /**
+     * Receives the metrics of each analyzed program, e.g. to forward them to
+     * a monitoring system.
+     */
+    public interface Reporter
+    {
+        void report(AnalysisMetrics metrics);
+    }
+
+    private final Map<String, Long> passNanos = new LinkedHashMap<String, Long>();
+    private long nodes = 0;
+    private long lookups = 0;
+    private long lookupHops = 0;
+    private long scopes = 0;
+    private long diagnostics = 0;
+
+    /**
+     * Add to the wall time spent in a pass.
+     */
+    public void addPassTime(String pass, long nanos)
+    {
+        Long total = passNanos.get(pass);
+        passNanos.put(pass, (total == null ? nanos : total + nanos));
+    }
+
+    public void countNodes(long count)
+    {
+        nodes += count;
+    }
+
+    public void countLookup()
+    {
+        lookups++;
+    }
+
+    /**
+     * Count a step from a node to its parent while searching for a scope.
+     */
+    public void countLookupHop()
+    {
+        lookupHops++;
+    }
+
+    public void countScope()
+    {
+        scopes++;
+    }
+
+    public void countDiagnostics(long count)
+    {
+        diagnostics += count;
+    }
+
+    /**
+     * Add another session's metrics to these.
+     */
+    public void merge(AnalysisMetrics other)
+    {
+        for (Map.Entry<String, Long> e : other.passNanos.entrySet()) {
+            addPassTime(e.getKey(), e.getValue());
+        }
+        nodes += other.nodes;
+        lookups += other.lookups;
+        lookupHops += other.lookupHops;
+        scopes += other.scopes;
+        diagnostics += other.diagnostics;
+    }
+
+    /**
+     * @return wall time per pass in nanoseconds, in the order the passes ran
+     */
+    public Map<String, Long> getPassNanos()
+    {
+        return Collections.unmodifiableMap(passNanos);
+    }
+
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    public long getLookups()
+    {
+        return lookups;
+    }
+
+    public long getLookupHops()
+    {
+        return lookupHops;
+    }
+
+    public long getScopes()
+    {
+        return scopes;
+    }
+
+    public long getDiagnostics()
+    {
+        return diagnostics;
+    }
+
+    /**
+     * @return the metrics as a single-line JSON object
+     */
+    public String toJson()
+    {
+        StringBuilder sb = new StringBuilder("{\"passNanos\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> e : passNanos.entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(e.getKey()).append("\":").append(e.getValue());
+        }
+        sb.append("},\"nodes\":").append(nodes);
+        sb.append(",\"lookups\":").append(lookups);
+        sb.append(",\"lookupHops\":").append(lookupHops);
+        sb.append(",\"scopes\":").append(scopes);
+        sb.append(",\"diagnostics\":").append(diagnostics);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public String toString()
+    {
+        return toJson();
+    }
+}
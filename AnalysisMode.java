@@ -0,0 +1,55 @@
+package edu.jmu.decaf;
+
+/**
+ * How much of a program the {@link AnalysisPipeline} analyzes once errors
+ * are found. {@link #FULL} reports every error; the other modes give the
+ * session an error limit, so symbol table construction and type checking
+ * are abandoned as soon as it is reached. Callers that only need to know
+ * whether a program is valid should use {@link #FIRST_ERROR}.
+ */
+public final class AnalysisMode
+{
+    /** Analyze the whole program and report all errors. */
+    public static final AnalysisMode FULL = new AnalysisMode(Integer.MAX_VALUE);
+
+    /** Stop at the first error. */
+    public static final AnalysisMode FIRST_ERROR = new AnalysisMode(1);
+
+    private final int errorLimit;
+
+    private AnalysisMode(int errorLimit)
+    {
+        this.errorLimit = errorLimit;
+    }
+
+    /**
+     * @param limit number of errors after which analysis stops (at least 1)
+     * @return mode that stops after the given number of errors
+     */
+    public static AnalysisMode maxErrors(int limit)
+    {
+        if (limit < 1) {
+            throw new IllegalArgumentException("error limit must be positive: " + limit);
+        }
+        return (limit == 1 ? FIRST_ERROR : new AnalysisMode(limit));
+    }
+
+    /**
+     * @return number of errors after which analysis stops
+     *         (Integer.MAX_VALUE for {@link #FULL})
+     */
+    public int getErrorLimit()
+    {
+        return errorLimit;
+    }
+
+    public String toString()
+    {
+        if (this == FULL) {
+            return "full";
+        } else if (this == FIRST_ERROR) {
+            return "first error";
+        }
+        return "max " + errorLimit + " errors";
+    }
+}
@@ -0,0 +1,354 @@
+package edu.jmu.decaf;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+
+/**
+ * Runs the full front end on one Decaf program: lexing, parsing, parent
+ * links, symbol tables, name resolution and type checking. All errors are
+ * reported into the session passed to {@link #analyze}, so a single pipeline
+ * may be used from several threads at once. Pass instances are kept in a
+ * pool: each analysis borrows a set, resets it for its program and returns
+ * it when done, so sets are reused across threads (including short-lived
+ * ones such as virtual threads) instead of allocated per program or per
+ * thread.
+ */
+public class AnalysisPipeline
+{
+    /**
+     * Pass instances used by one analysis at a time, reset and reused for
+     * every program.
+     */
+    private static class Passes
+    {
+        BuildSymbolTables symbols;
+        ResolveSymbols resolve;
+        BottomUpTypeCheck check;
+        FusedAnalysis fused;
+        ConstantFolding fold;
+
+        /**
+         * Drop all references to the last program and its session, so an
+         * idle set does not keep them alive.
+         */
+        void release()
+        {
+            AnalysisSession none = AnalysisSession.global();
+            if (symbols != null) {
+                symbols.reset(none);
+                resolve.reset(none);
+            }
+            if (check != null) {
+                check.reset(none);
+            }
+            if (fused != null) {
+                fused.reset(none);
+            }
+            if (fold != null) {
+                fold.reset(none);
+            }
+        }
+    }
+
+    /**
+     * Most idle pass sets kept; more are only created while more programs
+     * than this are analyzed at the same time.
+     */
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Pass sets not in use, the most recently returned one first.
+     */
+    private final Deque<Passes> idle = new ArrayDeque<Passes>();
+
+    /**
+     * Checks function bodies in parallel if set; null for a sequential
+     * type check.
+     */
+    protected ParallelTypeCheck parallelCheck = null;
+
+    /**
+     * Whether symbol tables are built in a {@link FlatSymbolTable}.
+     */
+    protected boolean flatSymbolTables = false;
+
+    /**
+     * Whether the passes run as one {@link FusedAnalysis} traversal.
+     */
+    protected boolean fused = false;
+
+    /**
+     * Run parent linking, symbol table construction and type checking in a
+     * single traversal. Errors are then reported in traversal order. Has no
+     * effect while a parallel type check is set, since that checks function
+     * bodies separately.
+     */
+    public void setFused(boolean fused)
+    {
+        this.fused = fused;
+    }
+
+    /**
+     * Receives the metrics of every analyzed program, or null.
+     */
+    protected AnalysisMetrics.Reporter reporter = null;
+
+    /**
+     * Collect {@link AnalysisMetrics} for every analyzed program and hand
+     * them to the given reporter (or stop collecting, if null). Metrics are
+     * also collected for any session that has them enabled already.
+     */
+    public void setMetricsReporter(AnalysisMetrics.Reporter reporter)
+    {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Whether non-void functions must return a value on every path.
+     */
+    protected boolean requireReturns = false;
+
+    /**
+     * Report non-void functions that can end without returning a value
+     * (off by default). A parallel type check has its own setting.
+     */
+    public void setRequireReturns(boolean require)
+    {
+        requireReturns = require;
+    }
+
+    /**
+     * Whether constant expressions are folded after type checking.
+     */
+    protected boolean constantFolding = false;
+
+    /**
+     * Run {@link ConstantFolding} after type checking: annotates constant
+     * expressions with their values, reports constant array indices out of
+     * range, and warns about constant conditions.
+     */
+    public void setConstantFolding(boolean fold)
+    {
+        constantFolding = fold;
+    }
+
+    /**
+     * How many errors are reported before analysis stops.
+     */
+    protected AnalysisMode mode = AnalysisMode.FULL;
+
+    /**
+     * Select how many errors are reported before analysis stops; e.g.
+     * {@link AnalysisMode#FIRST_ERROR} to only decide whether a program is
+     * valid.
+     */
+    public void setMode(AnalysisMode mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Build symbol tables as one flat, array-backed scope stack instead of a
+     * chain of hash tables.
+     */
+    public void setFlatSymbolTables(boolean flat)
+    {
+        flatSymbolTables = flat;
+    }
+
+    /**
+     * Type check the functions of each program in parallel (or not, if
+     * null), e.g. for very large single programs.
+     */
+    public void setParallelTypeCheck(ParallelTypeCheck check)
+    {
+        parallelCheck = check;
+    }
+
+    /**
+     * Lex, parse and analyze Decaf source code.
+     * @param text Decaf source code
+     * @param session receives all static analysis errors
+     * @return annotated syntax tree
+     * @throws IOException Thrown if the source cannot be read
+     * @throws InvalidTokenException Thrown if the source cannot be lexed
+     * @throws InvalidSyntaxException Thrown if the source cannot be parsed
+     */
+    public ASTProgram analyze(String text, AnalysisSession session)
+            throws IOException, InvalidTokenException, InvalidSyntaxException
+    {
+        AnalysisMetrics metrics = startMetrics(session);
+        int errors = session.getErrorCount();
+        try {
+            long start = System.nanoTime();
+            Queue<Token> tokens = (new MyDecafLexer()).lex(text);
+            long lexed = System.nanoTime();
+            ASTProgram program = (new MyDecafParser()).parse(tokens);
+            if (metrics != null) {
+                metrics.addPassTime("lex", lexed - start);
+                metrics.addPassTime("parse", System.nanoTime() - lexed);
+            }
+            runPasses(program, session);
+            return program;
+        } finally {
+            finishMetrics(session, errors);
+        }
+    }
+
+    /**
+     * Run the static analysis passes over an already parsed program.
+     * @param program syntax tree to analyze
+     * @param session receives all static analysis errors; analysis stops
+     *        as soon as the session's error limit is reached (it is lowered
+     *        to the limit of the pipeline's {@link AnalysisMode} while the
+     *        program is analyzed, if needed)
+     */
+    public void analyze(ASTProgram program, AnalysisSession session)
+    {
+        startMetrics(session);
+        int errors = session.getErrorCount();
+        try {
+            runPasses(program, session);
+        } finally {
+            finishMetrics(session, errors);
+        }
+    }
+
+    private void runPasses(ASTProgram program, AnalysisSession session)
+    {
+        int limit = session.getErrorLimit();
+        if (mode.getErrorLimit() < limit) {
+            session.setErrorLimit(mode.getErrorLimit());
+        }
+        AnalysisMetrics metrics = session.getMetrics();
+        if (metrics != null) {
+            NodeCounter counter = new NodeCounter();
+            program.traverse(counter);
+            metrics.countNodes(counter.getCount());
+        }
+        Passes p = borrowPasses();
+        try {
+            if (fused && parallelCheck == null) {
+                if (p.fused == null) {
+                    p.fused = new FusedAnalysis(session, flatSymbolTables);
+                } else {
+                    p.fused.reset(session, flatSymbolTables);
+                }
+                p.fused.setRequireReturns(requireReturns);
+                run(program, p.fused, "fused", metrics);
+            } else {
+                runSeparatePasses(program, session, p, metrics);
+            }
+            if (constantFolding) {
+                if (p.fold == null) {
+                    p.fold = new ConstantFolding(session);
+                } else {
+                    p.fold.reset(session);
+                }
+                run(program, p.fold, "constantFolding", metrics);
+            }
+        } catch (AnalysisSession.ErrorLimitException ex) {
+            // the session holds the errors found up to the limit
+        } finally {
+            returnPasses(p);
+            session.setErrorLimit(limit);
+        }
+    }
+
+    private Passes borrowPasses()
+    {
+        synchronized (idle) {
+            Passes p = idle.poll();
+            return (p != null ? p : new Passes());
+        }
+    }
+
+    private void returnPasses(Passes p)
+    {
+        p.release();
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE) {
+                idle.push(p);
+            }
+        }
+    }
+
+    /**
+     * Run parent linking, symbol tables, name resolution and type checking
+     * as separate traversals.
+     */
+    private void runSeparatePasses(ASTProgram program, AnalysisSession session,
+            Passes p, AnalysisMetrics metrics)
+    {
+        if (p.symbols == null) {
+            p.symbols = new BuildSymbolTables(session, flatSymbolTables);
+            p.resolve = new ResolveSymbols(session);
+        } else {
+            p.symbols.reset(session, flatSymbolTables);
+            p.resolve.reset(session);
+        }
+        run(program, new BuildParentLinks(), "parentLinks", metrics);
+        run(program, p.symbols, "symbolTables", metrics);
+        run(program, p.resolve, "resolveSymbols", metrics);
+        if (parallelCheck != null) {
+            long start = System.nanoTime();
+            try {
+                parallelCheck.check(program, session);
+            } finally {
+                if (metrics != null) {
+                    metrics.addPassTime("typeCheck", System.nanoTime() - start);
+                }
+            }
+        } else {
+            if (p.check == null) {
+                p.check = new BottomUpTypeCheck(session);
+            } else {
+                p.check.reset(session);
+            }
+            p.check.setRequireReturns(requireReturns);
+            run(program, p.check, "typeCheck", metrics);
+        }
+    }
+
+    /**
+     * Traverse the program with one pass, timing it if metrics are on.
+     */
+    private static void run(ASTProgram program, ASTVisitor pass, String name,
+            AnalysisMetrics metrics)
+    {
+        if (metrics == null) {
+            program.traverse(pass);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            program.traverse(pass);
+        } finally {
+            metrics.addPassTime(name, System.nanoTime() - start);
+        }
+    }
+
+    private AnalysisMetrics startMetrics(AnalysisSession session)
+    {
+        if (reporter != null) {
+            session.enableMetrics();
+        }
+        return session.getMetrics();
+    }
+
+    /**
+     * @param errors number of errors the session held before the analysis
+     */
+    private void finishMetrics(AnalysisSession session, int errors)
+    {
+        AnalysisMetrics metrics = session.getMetrics();
+        if (metrics != null) {
+            metrics.countDiagnostics(session.getErrorCount() - errors);
+            if (reporter != null) {
+                reporter.report(metrics);
+            }
+        }
+    }
+}
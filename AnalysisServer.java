@@ -0,0 +1,258 @@
+package edu.jmu.decaf;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Long-running analysis daemon. Keeps one warm JVM (and one
+ * {@link AnalysisPipeline}, whose pass instances are reused across requests)
+ * for many requests, read from stdin or from connections to a local socket.
+ *
+ * Requests are pipelined: a client may send any number of requests without
+ * waiting, and each result is written as soon as its analysis finishes, so
+ * results may arrive out of order and are matched up by request ID.
+ *
+ * <pre>
+ * request:   &lt;id&gt; &lt;length&gt;\n  followed by &lt;length&gt; bytes of UTF-8 source
+ * response:  &lt;id&gt; OK\n
+ *            &lt;id&gt; ERRORS &lt;n&gt;\n  followed by n lines, one per error
+ *            &lt;id&gt; FAILED &lt;message&gt;\n  (source could not be lexed,
+ *                                           parsed or analyzed)
+ * </pre>
+ *
+ * Usage: <code>AnalysisServer [-j workers] [--port port]</code>. Without a
+ * port, requests are read from stdin and answered on stdout until stdin is
+ * closed; with a port, the server accepts connections on the loopback
+ * interface until it is killed.
+ */
+public class AnalysisServer
+{
+    /**
+     * Largest source accepted in one request; longer requests are rejected
+     * as malformed before anything is allocated for them.
+     */
+    public static final int MAX_REQUEST_BYTES = 64 << 20;
+
+    private final ExecutorService pool;
+    private final AnalysisPipeline pipeline = new AnalysisPipeline();
+
+    /**
+     * @param workers number of requests analyzed at the same time
+     */
+    public AnalysisServer(int workers)
+    {
+        pool = Executors.newFixedThreadPool(Math.max(1, workers));
+    }
+
+    /**
+     * Answer all requests read from the input, returning once the input is
+     * exhausted and every response has been written.
+     * @param in request stream
+     * @param out response stream (flushed after every response)
+     * @throws IOException Thrown if the streams fail or a request is
+     *         malformed (including a length above {@link #MAX_REQUEST_BYTES})
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException
+    {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        try {
+            String header;
+            while ((header = readHeader(in)) != null) {
+                String[] parts = header.trim().split(" ");
+                if (parts.length != 2) {
+                    throw new IOException("malformed request header: " + header);
+                }
+                final String id = parts[0];
+                int length = Integer.parseInt(parts[1]);
+                if (length < 0 || length > MAX_REQUEST_BYTES) {
+                    throw new IOException("malformed request length: " + length);
+                }
+                byte[] source = new byte[length];
+                new DataInputStream(in).readFully(source);
+                final String text = new String(source, StandardCharsets.UTF_8);
+                pending.add(pool.submit(new Runnable() {
+                    public void run() {
+                        respond(writer, id, text);
+                    }
+                }));
+                // forget finished requests so a long session stays small
+                Iterator<Future<?>> it = pending.iterator();
+                while (it.hasNext()) {
+                    Future<?> f = it.next();
+                    if (f.isDone()) {
+                        it.remove();
+                        await(f);
+                    }
+                }
+            }
+        } catch (NumberFormatException ex) {
+            throw new IOException("malformed request length: " + ex.getMessage());
+        } finally {
+            for (Future<?> f : pending) {
+                if (!await(f)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for a request to be answered. An Error the analysis did not
+     * recover from (see {@link #respond}) is rethrown, so the server stops
+     * instead of serving on in an unknown state.
+     * @return false if the thread was interrupted while waiting
+     */
+    private static boolean await(Future<?> f)
+    {
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            // otherwise already answered as FAILED
+        }
+        return true;
+    }
+
+    /**
+     * Analyze one request and write its response.
+     */
+    protected void respond(Writer writer, String id, String text)
+    {
+        AnalysisSession session = new AnalysisSession();
+        String failure = null;
+        try {
+            pipeline.analyze(text, session);
+        } catch (IOException ex) {
+            failure = "I/O error: " + ex.getMessage();
+        } catch (InvalidTokenException ex) {
+            failure = "Invalid token: " + ex.getMessage();
+        } catch (InvalidSyntaxException ex) {
+            failure = "Invalid syntax: " + ex.getMessage();
+        } catch (RuntimeException ex) {
+            failure = "Internal error: " + ex;
+        } catch (StackOverflowError ex) {
+            // a deeply nested program; the stack is unwound, so the worker
+            // can go on (any other Error is left to stop the server)
+            failure = "Internal error: " + ex;
+        }
+
+        StringBuilder response = new StringBuilder(id);
+        if (failure != null) {
+            response.append(" FAILED ").append(singleLine(failure)).append('\n');
+        } else if (!session.hasErrors()) {
+            response.append(" OK\n");
+        } else {
+            List<String> errors = session.getErrors();
+            response.append(" ERRORS ").append(errors.size()).append('\n');
+            for (String e : errors) {
+                response.append(singleLine(e)).append('\n');
+            }
+        }
+        synchronized (writer) {
+            try {
+                writer.write(response.toString());
+                writer.flush();
+            } catch (IOException ex) {
+                // client went away; nothing left to tell it
+            }
+        }
+    }
+
+    /**
+     * Accept connections on the loopback interface and serve each one on
+     * its own thread, sharing the worker pool. Does not return.
+     */
+    public void listen(int port) throws IOException
+    {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            while (true) {
+                final Socket socket = server.accept();
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            serve(new BufferedInputStream(socket.getInputStream()),
+                                    socket.getOutputStream());
+                        } catch (IOException ex) {
+                            // drop the connection
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException ex) {
+                                // already closed
+                            }
+                        }
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Stop the worker pool once all submitted requests have finished.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Read an ASCII header line, or return null at the end of the stream.
+     */
+    private static String readHeader(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            sb.append((char)c);
+        }
+        if (c < 0 && sb.toString().trim().length() == 0) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    private static String singleLine(String text)
+    {
+        return text.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int port = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: AnalysisServer [-j workers] [--port port]");
+                System.exit(2);
+            }
+        }
+        AnalysisServer server = new AnalysisServer(workers);
+        if (port >= 0) {
+            server.listen(port);
+        } else {
+            try {
+                server.serve(new BufferedInputStream(System.in), System.out);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+}
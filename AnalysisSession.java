@@ -0,0 +1,352 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Collects the diagnostics produced while analyzing one program. Each
+ * analysis pass reports into the session it was constructed with, so
+ * independent programs can be analyzed concurrently (each with its own
+ * session) without their errors mixing.
+ *
+ * Errors are kept as {@link Diagnostic} records and only rendered to text
+ * when asked for. A session may be given an error limit: the report that
+ * reaches it throws {@link ErrorLimitException}, which unwinds the running
+ * pass so that no further work is spent on a program already known to be
+ * invalid.
+ *
+ * A session also holds the {@link NodeTable} the passes store their
+ * per-expression annotations in, so those live exactly as long as the
+ * analysis that produced them.
+ *
+ * The shared {@link #global()} session forwards to the static error list in
+ * {@link StaticAnalysis}; passes constructed without a session use it, which
+ * keeps {@link StaticAnalysis#getErrorString()} and
+ * {@link StaticAnalysis#resetErrors()} working as before. It counts the
+ * errors reported through it, and starts again from zero once the static
+ * list is found empty; the list is checked when the count is asked for and,
+ * if an error limit is set, before every report. It has no node table;
+ * annotations made for it are stored on the nodes, as before.
+ */
+public class AnalysisSession
+{
+    /**
+     * Thrown by the report that reaches a session's error limit. Carries no
+     * stack trace, since it is used for control flow.
+     */
+    public static class ErrorLimitException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ErrorLimitException(int limit)
+        {
+            super("Stopped after " + limit + " error(s)");
+        }
+
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+
+    private static final AnalysisSession GLOBAL = new GlobalSession();
+
+    private final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+    private final List<Diagnostic> warnings = new ArrayList<Diagnostic>();
+    private int errorCount = 0;
+    private int errorLimit = Integer.MAX_VALUE;
+    private volatile AnalysisMetrics metrics = null;
+    private final NodeTable nodes;
+
+    public AnalysisSession()
+    {
+        this(new NodeTable());
+    }
+
+    private AnalysisSession(NodeTable nodes)
+    {
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return the process-wide session backed by {@link StaticAnalysis}
+     */
+    public static AnalysisSession global()
+    {
+        return GLOBAL;
+    }
+
+    /**
+     * Create a session for part of this analysis that runs on another
+     * thread. It has the same error limit, collects metrics if this session
+     * does, and sees this session's node annotations; its own annotations
+     * are kept apart until they are added to this session's table.
+     */
+    public AnalysisSession fork()
+    {
+        AnalysisSession local = new AnalysisSession(nodes == null ? null : new NodeTable(nodes));
+        local.setErrorLimit(getErrorLimit());
+        if (metrics != null) {
+            local.enableMetrics();
+        }
+        return local;
+    }
+
+    /**
+     * @return side table of this session's node annotations, or null if
+     *         they are stored on the nodes
+     */
+    public NodeTable getNodeTable()
+    {
+        return nodes;
+    }
+
+    /**
+     * Start collecting {@link AnalysisMetrics} for this session (if it does
+     * not already).
+     * @return the session's metrics
+     */
+    public synchronized AnalysisMetrics enableMetrics()
+    {
+        if (metrics == null) {
+            metrics = new AnalysisMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics collected for this session, or null if metrics
+     *         are not enabled
+     */
+    public AnalysisMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Stop the analysis (by throwing {@link ErrorLimitException}) as soon as
+     * this many errors have been reported.
+     */
+    public synchronized void setErrorLimit(int limit)
+    {
+        errorLimit = limit;
+    }
+
+    /**
+     * @return the error limit (Integer.MAX_VALUE if there is none)
+     */
+    public synchronized int getErrorLimit()
+    {
+        return errorLimit;
+    }
+
+    /**
+     * Record an error.
+     * @param code kind of error
+     * @param node node the error was found at (may be null)
+     * @param args message arguments
+     * @throws ErrorLimitException Thrown if this error reaches the limit
+     */
+    public void report(Diagnostic.Code code, ASTNode node, Object... args)
+    {
+        report(new Diagnostic(code, node, args));
+    }
+
+    /**
+     * Record an error.
+     * @throws ErrorLimitException Thrown if this error reaches the limit
+     */
+    public synchronized void report(Diagnostic diagnostic)
+    {
+        if (errorLimit != Integer.MAX_VALUE) {
+            refreshErrorCount();
+            if (errorCount >= errorLimit) {
+                throw new ErrorLimitException(errorLimit);
+            }
+        }
+        errorCount++;
+        store(diagnostic);
+        if (errorCount >= errorLimit) {
+            throw new ErrorLimitException(errorLimit);
+        }
+    }
+
+    /**
+     * Bring the error count up to date before it is used. Only the global
+     * session needs to, since its errors can be cleared behind its back.
+     */
+    protected void refreshErrorCount()
+    {
+    }
+
+    /**
+     * Record a warning. Warnings are kept apart from errors: they do not
+     * make a program invalid, count towards the error limit, or appear in
+     * {@link #getErrorString()}.
+     * @param code kind of warning
+     * @param node node the warning was found at (may be null)
+     * @param args message arguments
+     */
+    public synchronized void warn(Diagnostic.Code code, ASTNode node, Object... args)
+    {
+        warnings.add(new Diagnostic(code, node, args));
+    }
+
+    /**
+     * @return a copy of the warnings recorded so far, in report order
+     */
+    public synchronized List<Diagnostic> getWarnings()
+    {
+        return new ArrayList<Diagnostic>(warnings);
+    }
+
+    /**
+     * Record an error message.
+     */
+    public void addError(String message)
+    {
+        report(Diagnostic.Code.MESSAGE, null, message);
+    }
+
+    /**
+     * Record the error carried by an exception.
+     */
+    public void addError(InvalidProgramException ex)
+    {
+        addError(ex.getMessage());
+    }
+
+    /**
+     * Keep a reported diagnostic.
+     */
+    protected void store(Diagnostic diagnostic)
+    {
+        diagnostics.add(diagnostic);
+    }
+
+    /**
+     * @return a copy of the diagnostics recorded so far, in report order
+     */
+    public synchronized List<Diagnostic> getDiagnostics()
+    {
+        return new ArrayList<Diagnostic>(diagnostics);
+    }
+
+    /**
+     * @return number of errors reported so far
+     */
+    public synchronized int getErrorCount()
+    {
+        refreshErrorCount();
+        return errorCount;
+    }
+
+    /**
+     * @return the rendered errors recorded so far, in report order
+     */
+    public synchronized List<String> getErrors()
+    {
+        List<String> errors = new ArrayList<String>(diagnostics.size());
+        for (Diagnostic d : diagnostics) {
+            errors.add(d.render());
+        }
+        return errors;
+    }
+
+    /**
+     * @return true if any error has been recorded
+     */
+    public synchronized boolean hasErrors()
+    {
+        return errorCount > 0;
+    }
+
+    /**
+     * @return all errors, one per line (empty if there are none)
+     */
+    public synchronized String getErrorString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic d : diagnostics) {
+            sb.append(d.render());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Discard all recorded errors, warnings and node annotations (and
+     * metrics, if they are enabled).
+     */
+    public synchronized void reset()
+    {
+        diagnostics.clear();
+        warnings.clear();
+        errorCount = 0;
+        if (nodes != null) {
+            nodes.clear();
+        }
+        if (metrics != null) {
+            metrics = new AnalysisMetrics();
+        }
+    }
+
+    /**
+     * Compatibility session that stores into the static error list.
+     */
+    private static class GlobalSession extends AnalysisSession
+    {
+        GlobalSession()
+        {
+            super(null);
+        }
+
+        protected void store(Diagnostic diagnostic)
+        {
+            StaticAnalysis.addError(diagnostic.render());
+        }
+
+        public List<Diagnostic> getDiagnostics()
+        {
+            List<Diagnostic> list = new ArrayList<Diagnostic>();
+            for (String e : getErrors()) {
+                list.add(new Diagnostic(Diagnostic.Code.MESSAGE, null, e));
+            }
+            return list;
+        }
+
+        public List<String> getErrors()
+        {
+            List<String> list = new ArrayList<String>();
+            for (String e : StaticAnalysis.getErrorString().split("\n")) {
+                if (e.length() > 0) {
+                    list.add(e);
+                }
+            }
+            return list;
+        }
+
+        protected void refreshErrorCount()
+        {
+            // StaticAnalysis.resetErrors() empties the list without telling us
+            if (StaticAnalysis.getErrorString().length() == 0) {
+                ((AnalysisSession)this).errorCount = 0;
+            }
+        }
+
+        public boolean hasErrors()
+        {
+            return StaticAnalysis.getErrorString().length() > 0;
+        }
+
+        public String getErrorString()
+        {
+            return StaticAnalysis.getErrorString();
+        }
+
+        public synchronized void reset()
+        {
+            super.reset();
+            StaticAnalysis.resetErrors();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.jmu.decaf;
+
+import java.io.PrintStream;
+
+/**
+ * Opt-in tracing for the static analysis passes. Tracing is off unless a
+ * {@link Sink} is installed; passes guard every trace point with
+ * {@link #isEnabled()}, so a disabled trace costs a single volatile read and
+ * builds no strings.
+ *
+ * <pre>
+ *     AnalysisTrace.setSink(new AnalysisTrace.PrintSink(System.err));
+ * </pre>
+ */
+public final class AnalysisTrace
+{
+    /**
+     * A single trace event. Fields are kept as structured values; nothing is
+     * rendered until a sink asks for it.
+     */
+    public static final class Event
+    {
+        /** Name of the pass that emitted the event. */
+        public final String pass;
+        /** Node the event is about. */
+        public final ASTNode node;
+        /** Symbol the node resolved to, or null if it did not resolve. */
+        public final Symbol symbol;
+
+        public Event(String pass, ASTNode node, Symbol symbol)
+        {
+            this.pass = pass;
+            this.node = node;
+            this.symbol = symbol;
+        }
+
+        /**
+         * Kind of the node (its AST class name, e.g. "ASTLocation").
+         */
+        public String getNodeKind()
+        {
+            return node.getClass().getSimpleName();
+        }
+
+        /**
+         * Source location of the node.
+         */
+        public SourceInfo getSourceInfo()
+        {
+            return node.getSourceInfo();
+        }
+
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(pass).append(' ').append(getNodeKind());
+            sb.append(' ').append(getSourceInfo().toString());
+            if (symbol != null) {
+                sb.append(" -> ").append(symbol.type);
+                sb.append(' ').append(symbol.location);
+            } else {
+                sb.append(" -> unresolved");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Receiver for trace events. Implementations must be thread-safe if
+     * programs are analyzed concurrently.
+     */
+    public interface Sink
+    {
+        void event(Event e);
+    }
+
+    /**
+     * Sink that writes one line per event to a stream.
+     */
+    public static class PrintSink implements Sink
+    {
+        private final PrintStream out;
+
+        public PrintSink(PrintStream out)
+        {
+            this.out = out;
+        }
+
+        public void event(Event e)
+        {
+            out.println(e.toString());
+        }
+    }
+
+    private static volatile Sink sink = null;
+
+    private AnalysisTrace()
+    {
+    }
+
+    /**
+     * Install a sink, or pass null to disable tracing.
+     */
+    public static void setSink(Sink s)
+    {
+        sink = s;
+    }
+
+    /**
+     * @return true if a sink is installed
+     */
+    public static boolean isEnabled()
+    {
+        return sink != null;
+    }
+
+    /**
+     * Emit an event to the installed sink (if any).
+     * @param pass name of the emitting pass
+     * @param node node the event is about
+     * @param symbol symbol the node resolved to (or null)
+     */
+    public static void event(String pass, ASTNode node, Symbol symbol)
+    {
+        Sink s = sink;
+        if (s != null) {
+            s.event(new Event(pass, node, symbol));
+        }
+    }
+}
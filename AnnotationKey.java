@@ -0,0 +1,123 @@
+package edu.jmu.decaf;
+
+/**
+ * Typed key for an AST node annotation. Passes read and write their results
+ * through these constants instead of raw strings, so every access is
+ * checked at compile time and needs no casts at the call site.
+ *
+ * Annotations there is one of per program, function or block (scopes and
+ * control-flow graphs) are stored in the node's {@link ASTNode#annotations}
+ * map, where parent-link walks find them and where "symbolTable" has always
+ * been. The per-expression annotations
+ * are stored in the {@link NodeTable} of the analysis session when given
+ * one, and in the node's map otherwise (e.g., for the global session).
+ *
+ * @param <T> type of the annotation value
+ */
+public final class AnnotationKey<T>
+{
+    /** Scope introduced by a program, function or block (BuildSymbolTables). */
+    public static final AnnotationKey<SymbolTable> SYMBOL_TABLE =
+        new AnnotationKey<SymbolTable>("symbolTable", SymbolTable.class, -1);
+
+    /**
+     * Scope of a function or block built in a {@link FlatSymbolTable}, in
+     * place of {@link #SYMBOL_TABLE} (BuildSymbolTables).
+     */
+    public static final AnnotationKey<FlatSymbolTable.Scope> FLAT_SCOPE =
+        new AnnotationKey<FlatSymbolTable.Scope>("flatScope", FlatSymbolTable.Scope.class, -1);
+
+    /** Symbol a location or call is bound to (ResolveSymbols). */
+    public static final AnnotationKey<Symbol> SYMBOL =
+        new AnnotationKey<Symbol>("symbol", Symbol.class, 0);
+
+    /** Inferred type of an expression; null if it is ill-typed (TypeCheck). */
+    public static final AnnotationKey<ASTNode.DataType> TYPE =
+        new AnnotationKey<ASTNode.DataType>("type", ASTNode.DataType.class, 1);
+
+    /** Value of a constant expression, an Integer or Boolean (ConstantFolding). */
+    public static final AnnotationKey<Object> CONSTANT =
+        new AnnotationKey<Object>("constant", Object.class, 2);
+
+    /** Control-flow graph of a function (TypeCheck). */
+    public static final AnnotationKey<ControlFlowGraph> FLOW =
+        new AnnotationKey<ControlFlowGraph>("flow", ControlFlowGraph.class, -1);
+
+    private final String name;
+    private final Class<T> type;
+    private final int slot;
+
+    /**
+     * @param slot index of the key's map in a {@link NodeTable}, or -1 to
+     *        always store on the node
+     */
+    private AnnotationKey(String name, Class<T> type, int slot)
+    {
+        this.name = name;
+        this.type = type;
+        this.slot = slot;
+    }
+
+    /**
+     * @return the string key used in {@link ASTNode#annotations}
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the value stored on the node, or null if there is none
+     */
+    public T get(ASTNode node)
+    {
+        return type.cast(node.annotations.get(name));
+    }
+
+    /**
+     * Store a value on the node (null is allowed and counts as set).
+     */
+    public void set(ASTNode node, T value)
+    {
+        node.annotations.put(name, value);
+    }
+
+    /**
+     * @return true if a value (possibly null) is stored on the node
+     */
+    public boolean isSet(ASTNode node)
+    {
+        return node.annotations.containsKey(name);
+    }
+
+    /**
+     * @param table side table of the analysis (null to use the node's map)
+     * @return the value stored for the node, or null if there is none
+     */
+    public T get(NodeTable table, ASTNode node)
+    {
+        return (table == null || slot < 0 ? get(node) : type.cast(table.get(slot, node)));
+    }
+
+    /**
+     * Store a value for the node (null is allowed and counts as set).
+     * @param table side table of the analysis (null to use the node's map)
+     */
+    public void set(NodeTable table, ASTNode node, T value)
+    {
+        if (table == null || slot < 0) {
+            set(node, value);
+        } else {
+            table.put(slot, node, value);
+        }
+    }
+
+    /**
+     * @param table side table of the analysis (null to use the node's map)
+     * @return true if a value (possibly null) is stored for the node
+     */
+    public boolean isSet(NodeTable table, ASTNode node)
+    {
+        return (table == null || slot < 0 ? isSet(node) : table.containsKey(slot, node));
+    }
+}
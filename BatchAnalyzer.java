@@ -0,0 +1,361 @@
+package edu.jmu.decaf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Analyzes many Decaf files in parallel. Each file runs through an
+ * {@link AnalysisPipeline} with its own {@link AnalysisSession} on a worker
+ * pool; results are always returned (and printed) in input order, no matter
+ * which worker finishes first.
+ *
+ * Usage: <code>BatchAnalyzer [-j workers] [--virtual] [--cache dir]
+ * [--cache-mb size] [--first-error | --max-errors n] [--metrics] [--stream]
+ * file-or-directory...</code>
+ * Directories are searched recursively for <code>.decaf</code> files. With a
+ * cache directory, files whose text was analyzed before are answered from
+ * the {@link AnalysisCache}. <code>--first-error</code> and
+ * <code>--max-errors</code> select an {@link AnalysisMode} that stops
+ * analyzing each file early; results computed in such a mode are not cached,
+ * since they may be incomplete. <code>--metrics</code> prints the
+ * {@link AnalysisMetrics} of each analyzed file as JSON. <code>--stream</code>
+ * analyzes memory-mapped files with a {@link StreamingAnalyzer}, for inputs
+ * too large to hold in memory.
+ */
+public class BatchAnalyzer
+{
+    /**
+     * Outcome of analyzing one file.
+     */
+    public static class FileResult
+    {
+        /** File that was analyzed. */
+        public final File file;
+        /** Static analysis errors, in report order. */
+        public final List<String> errors;
+        /** Lexing, parsing or I/O failure, or null if the file was analyzed. */
+        public final String failure;
+        /** Metrics of the analysis, or null if none were collected. */
+        public final AnalysisMetrics metrics;
+
+        public FileResult(File file, List<String> errors, String failure)
+        {
+            this(file, errors, failure, null);
+        }
+
+        public FileResult(File file, List<String> errors, String failure,
+                AnalysisMetrics metrics)
+        {
+            this.file = file;
+            this.errors = errors;
+            this.failure = failure;
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return true if the file parsed and had no static errors
+         */
+        public boolean isValid()
+        {
+            return failure == null && errors.isEmpty();
+        }
+    }
+
+    private final int workers;
+    private final boolean virtualThreads;
+    private final AnalysisPipeline pipeline;
+    private AnalysisCache cache = null;
+    private AnalysisMode mode = AnalysisMode.FULL;
+    private boolean collectMetrics = false;
+    private StreamingAnalyzer streaming = null;
+
+    /**
+     * @param workers size of the platform thread pool
+     * @param virtualThreads use one virtual thread per file instead of a
+     *        fixed pool (falls back to the pool on JVMs without them)
+     */
+    public BatchAnalyzer(int workers, boolean virtualThreads)
+    {
+        this.workers = Math.max(1, workers);
+        this.virtualThreads = virtualThreads;
+        this.pipeline = new AnalysisPipeline();
+    }
+
+    /**
+     * Answer files from (and store results in) the given cache, or disable
+     * caching if null.
+     */
+    public void setCache(AnalysisCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Collect {@link AnalysisMetrics} for every file that is analyzed (files
+     * answered from the cache have none).
+     */
+    public void setCollectMetrics(boolean collect)
+    {
+        collectMetrics = collect;
+    }
+
+    /**
+     * Analyze files one declaration at a time with the given analyzer
+     * instead of reading them whole (or not, if null). Streamed files
+     * bypass the cache and have no metrics.
+     */
+    public void setStreaming(StreamingAnalyzer streaming)
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Select how many errors are reported per file.
+     */
+    public void setMode(AnalysisMode mode)
+    {
+        pipeline.setMode(mode);
+        this.mode = mode;
+    }
+
+    /**
+     * Analyze a single file.
+     */
+    public FileResult analyze(File file)
+    {
+        AnalysisSession session = new AnalysisSession();
+        if (collectMetrics && streaming == null) {
+            session.enableMetrics();
+        }
+        try {
+            if (streaming != null) {
+                session.setErrorLimit(mode.getErrorLimit());
+                streaming.analyze(MappedSource.map(file), session);
+                return new FileResult(file, session.getErrors(), null, session.getMetrics());
+            }
+            String text = new String(Files.readAllBytes(file.toPath()),
+                    StandardCharsets.UTF_8);
+            String key = null;
+            if (cache != null && mode == AnalysisMode.FULL) {
+                key = AnalysisCache.key(text);
+                AnalysisCache.Entry entry = cache.get(key);
+                if (entry != null) {
+                    return new FileResult(file, entry.errors, null);
+                }
+            }
+            ASTProgram program = pipeline.analyze(text, session);
+            if (key != null) {
+                try {
+                    cache.put(key, session.getErrors(), program);
+                } catch (IOException ex) {
+                    // the file was analyzed; its result just is not cached
+                }
+            }
+        } catch (IOException ex) {
+            return new FileResult(file, session.getErrors(), "I/O error: " + ex.getMessage(),
+                    session.getMetrics());
+        } catch (InvalidTokenException ex) {
+            return new FileResult(file, session.getErrors(), "Invalid token: " + ex.getMessage(),
+                    session.getMetrics());
+        } catch (InvalidSyntaxException ex) {
+            return new FileResult(file, session.getErrors(), "Invalid syntax: " + ex.getMessage(),
+                    session.getMetrics());
+        }
+        return new FileResult(file, session.getErrors(), null, session.getMetrics());
+    }
+
+    /**
+     * Analyze all files on the worker pool.
+     * @param files files to analyze
+     * @return one result per file, in the same order as the input
+     */
+    public List<FileResult> analyzeAll(List<File> files)
+            throws InterruptedException
+    {
+        ExecutorService pool = createExecutor();
+        try {
+            List<Future<FileResult>> futures = new ArrayList<Future<FileResult>>();
+            for (final File f : files) {
+                futures.add(pool.submit(new Callable<FileResult>() {
+                    public FileResult call() {
+                        return analyze(f);
+                    }
+                }));
+            }
+            List<FileResult> results = new ArrayList<FileResult>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    results.add(new FileResult(files.get(i), new ArrayList<String>(),
+                            "Internal error: " + ex.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Create the executor for a batch; virtual threads are looked up
+     * reflectively so the analyzer still runs on JVMs without them.
+     */
+    protected ExecutorService createExecutor()
+    {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService)Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                // not available on this JVM; use platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * Expand the command-line arguments into a sorted list of source files.
+     */
+    public static List<File> collectFiles(List<String> paths)
+    {
+        List<File> files = new ArrayList<File>();
+        for (String p : paths) {
+            collectFiles(new File(p), files, true);
+        }
+        return files;
+    }
+
+    private static void collectFiles(File f, List<File> files, boolean explicit)
+    {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+            for (File c : children) {
+                collectFiles(c, files, false);
+            }
+        } else if (explicit || f.getName().endsWith(".decaf")) {
+            files.add(f);
+        }
+    }
+
+    /**
+     * Print per-file diagnostics followed by a summary line.
+     * @return number of files that were not valid
+     */
+    public static int report(List<FileResult> results, PrintStream out)
+    {
+        int invalid = 0;
+        int errors = 0;
+        for (FileResult r : results) {
+            if (r.isValid()) {
+                out.println(r.file.getPath() + ": OK");
+                if (r.metrics != null) {
+                    out.println("    metrics: " + r.metrics.toJson());
+                }
+                continue;
+            }
+            invalid++;
+            if (r.failure != null) {
+                out.println(r.file.getPath() + ": " + r.failure);
+                errors++;
+            } else {
+                out.println(r.file.getPath() + ": " + r.errors.size() + " error(s)");
+            }
+            for (String e : r.errors) {
+                out.println("    " + e);
+            }
+            errors += r.errors.size();
+            if (r.metrics != null) {
+                out.println("    metrics: " + r.metrics.toJson());
+            }
+        }
+        out.println(results.size() + " file(s), " + (results.size() - invalid)
+                + " valid, " + invalid + " invalid, " + errors + " error(s)");
+        return invalid;
+    }
+
+    /**
+     * Run the analyzer with the given command-line arguments.
+     * @param out receives the per-file report and summary
+     * @return exit status: 0 if every file is valid, 1 if some file is not,
+     *         2 for a usage error
+     */
+    public static int run(String[] args, PrintStream out) throws InterruptedException
+    {
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean virtualThreads = false;
+        String cacheDir = null;
+        long cacheMegabytes = 256;
+        AnalysisMode mode = AnalysisMode.FULL;
+        boolean metrics = false;
+        boolean stream = false;
+        List<String> paths = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-j") && i + 1 < args.length) {
+                    workers = Integer.parseInt(args[++i]);
+                    if (workers < 1) {
+                        throw new IllegalArgumentException("workers must be positive: " + workers);
+                    }
+                } else if (args[i].equals("--virtual")) {
+                    virtualThreads = true;
+                } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                    cacheDir = args[++i];
+                } else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+                    cacheMegabytes = Long.parseLong(args[++i]);
+                    if (cacheMegabytes < 0 || cacheMegabytes > (Long.MAX_VALUE >> 20)) {
+                        throw new IllegalArgumentException("invalid cache size: " + cacheMegabytes);
+                    }
+                } else if (args[i].equals("--stream")) {
+                    stream = true;
+                } else if (args[i].equals("--metrics")) {
+                    metrics = true;
+                } else if (args[i].equals("--first-error")) {
+                    mode = AnalysisMode.FIRST_ERROR;
+                } else if (args[i].equals("--max-errors") && i + 1 < args.length) {
+                    mode = AnalysisMode.maxErrors(Integer.parseInt(args[++i]));
+                } else {
+                    paths.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // includes NumberFormatException
+            System.err.println(ex.getMessage());
+            return usage();
+        }
+        if (paths.isEmpty()) {
+            return usage();
+        }
+        BatchAnalyzer analyzer = new BatchAnalyzer(workers, virtualThreads);
+        analyzer.setMode(mode);
+        analyzer.setCollectMetrics(metrics);
+        if (stream) {
+            analyzer.setStreaming(new StreamingAnalyzer());
+        }
+        if (cacheDir != null) {
+            analyzer.setCache(new AnalysisCache(new File(cacheDir), cacheMegabytes << 20));
+        }
+        List<FileResult> results = analyzer.analyzeAll(collectFiles(paths));
+        return (report(results, out) == 0 ? 0 : 1);
+    }
+
+    private static int usage()
+    {
+        System.err.println("Usage: BatchAnalyzer [-j workers] [--virtual] [--cache dir]"
+                + " [--cache-mb size] [--first-error | --max-errors n] [--metrics]"
+                + " [--stream] file-or-directory...");
+        return 2;
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        System.exit(run(args, System.out));
+    }
+}
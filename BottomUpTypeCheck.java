@@ -0,0 +1,60 @@
+package edu.jmu.decaf;
+
+/**
+ * Static analysis; perform type checking in a single bottom-up pass.
+ *
+ * Applies the same rules and reports the same errors as {@link TypeCheck},
+ * but every expression is typed in its own postVisit. Children are always
+ * post-visited before their parent, so their types are already memoized
+ * and each expression node is inferred exactly once, in O(1). Statement
+ * checks then only read the types of their (already typed) expressions.
+ *
+ * Can be used anywhere a {@link TypeCheck} pass is run:
+ * <pre>
+ *     program.traverse(new BuildParentLinks());
+ *     program.traverse(new BuildSymbolTables());
+ *     program.traverse(new BottomUpTypeCheck());
+ * </pre>
+ */
+public class BottomUpTypeCheck extends TypeCheck
+{
+    public BottomUpTypeCheck()
+    {
+        super();
+    }
+
+    public BottomUpTypeCheck(AnalysisSession session)
+    {
+        super(session);
+    }
+
+    protected TypeCheck newInstance(AnalysisSession session)
+    {
+        return new BottomUpTypeCheck(session);
+    }
+
+    public void postVisit(ASTBinaryExpr node)
+    {
+        getType((ASTExpression)node);
+    }
+
+    public void postVisit(ASTUnaryExpr node)
+    {
+        getType((ASTExpression)node);
+    }
+
+    public void postVisit(ASTFunctionCall node)
+    {
+        getType((ASTExpression)node);
+    }
+
+    public void postVisit(ASTLocation node)
+    {
+        getType((ASTExpression)node);
+    }
+
+    public void postVisit(ASTLiteral node)
+    {
+        getType((ASTExpression)node);
+    }
+}
@@ -14,13 +14,75 @@ public class BuildSymbolTables extends StaticAnalysis
      */
     protected Deque<SymbolTable> tableStack;
 
+    /**
+     * Receives the errors found by this pass.
+     */
+    protected AnalysisSession session;
+
+    /**
+     * Backing store for function and block scopes if flat tables were
+     * selected (created with the first such scope); the program scope is
+     * always a {@link SymbolTable}.
+     */
+    protected FlatSymbolTable flatTable;
+
+    /**
+     * Whether flat tables were selected.
+     */
+    protected boolean flatTables;
+
     public BuildSymbolTables()
     {
+        this(AnalysisSession.global());
+    }
+
+    public BuildSymbolTables(AnalysisSession session)
+    {
+        this(session, false);
+    }
+
+    /**
+     * @param session receives the errors found by this pass
+     * @param flatTables build function and block scopes in one
+     *        {@link FlatSymbolTable} (those nodes are annotated with its
+     *        persistent scope views instead of symbol tables)
+     */
+    public BuildSymbolTables(AnalysisSession session, boolean flatTables)
+    {
+        this.session = session;
+        this.flatTables = flatTables;
         tableStack = new ArrayDeque<SymbolTable>();
     }
 
     /**
-     * Return the innermost active symbol table.
+     * Prepare this pass for another program, keeping the capacity of its
+     * scope stack. The flat table is dropped rather than cleared, since the
+     * previous program's nodes still refer to its scopes.
+     * @param session receives the errors found in the next program
+     */
+    public void reset(AnalysisSession session)
+    {
+        reset(session, flatTables);
+    }
+
+    /**
+     * Prepare this pass for another program, switching between flat and
+     * chained tables.
+     * @param session receives the errors found in the next program
+     * @param flatTables build function and block scopes in one
+     *        {@link FlatSymbolTable}
+     */
+    public void reset(AnalysisSession session, boolean flatTables)
+    {
+        this.session = session;
+        this.flatTables = flatTables;
+        tableStack.clear();
+        flatTable = null;
+    }
+
+    /**
+     * Return the innermost active symbol table (the enclosing one while a
+     * flat scope is open).
      */
     protected SymbolTable getCurrentTable()
     {
@@ -28,6 +90,24 @@ public class BuildSymbolTables extends StaticAnalysis
         return tableStack.peek();
     }
 
+    /**
+     * @return true if the innermost scope is a scope of the flat table
+     */
+    protected boolean inFlatScope()
+    {
+        return flatTable != null && flatTable.isOpen();
+    }
+
+    /**
+     * Look up a name in the innermost scope.
+     * @throws InvalidProgramException Thrown if the symbol is not found
+     */
+    protected Symbol lookup(String name)
+            throws InvalidProgramException
+    {
+        return (inFlatScope() ? flatTable.lookup(name) : getCurrentTable().lookup(name));
+    }
+
     /**
      * Create a new innermost symbol table scope and push it on the stack.
      */
@@ -40,33 +120,85 @@ public class BuildSymbolTables extends StaticAnalysis
             table = new SymbolTable();
         }
         tableStack.push(table);
+        countScope();
         return table;
     }
 
+    /**
+     * Create a new innermost scope for a node and annotate the node with
+     * it: a flat scope (and its {@link SymbolTable} view) for functions and
+     * blocks if flat tables were selected, and a new symbol table otherwise.
+     */
+    protected void enterScope(ASTNode node)
+    {
+        if (!flatTables || tableStack.isEmpty()) {
+            AnnotationKey.SYMBOL_TABLE.set(node, initializeScope());
+            return;
+        }
+        if (flatTable == null
+                || (!flatTable.isOpen() && flatTable.getOuter() != getCurrentTable())) {
+            // first flat scope, or nested in another program scope (see
+            // buildFunctionScopes)
+            flatTable = new FlatSymbolTable(getCurrentTable());
+        }
+        FlatSymbolTable.Scope scope = flatTable.push();
+        AnnotationKey.FLAT_SCOPE.set(node, scope);
+        // for consumers that look for a symbol table on the node
+        AnnotationKey.SYMBOL_TABLE.set(node, scope.asSymbolTable());
+        countScope();
+    }
+
+    private void countScope()
+    {
+        AnalysisMetrics metrics = session.getMetrics();
+        if (metrics != null) {
+            metrics.countScope();
+        }
+    }
+
     /**
      * Pop the stack and move outwards one scope level.
      */
     protected void finalizeScope()
     {
+        if (inFlatScope()) {
+            flatTable.pop();
+            return;
+        }
         assert(tableStack.size() > 0);
         tableStack.pop();
     }
 
     /**
-     * Add a symbol for the given function to the current (innermost) scope.
+     * Add a symbol to the current (innermost) scope, reporting a duplicate
+     * declaration at the given node. Flat scopes detect duplicates without
+     * throwing.
      */
-    protected void insertFunctionSymbol(ASTFunction node)
+    protected void insertSymbol(String name, Symbol symbol, ASTNode node)
     {
-        try {
-            List<ASTNode.DataType> ptypes = new ArrayList<ASTNode.DataType>();
-            for (ASTFunction.Parameter p : node.parameters) {
-                ptypes.add(p.type);
+        if (inFlatScope()) {
+            if (!flatTable.declare(name, symbol)) {
+                session.report(Diagnostic.Code.DUPLICATE_SYMBOL, node, name);
             }
-            Symbol symbol = new Symbol(node.name, node.returnType, ptypes);
-            getCurrentTable().insert(node.name, symbol);
+            return;
+        }
+        try {
+            getCurrentTable().insert(name, symbol);
         } catch (InvalidProgramException ex) {
-            addError(ex);
+            session.addError(ex);
+        }
+    }
+
+    /**
+     * Add a symbol for the given function to the current (innermost) scope.
+     */
+    protected void insertFunctionSymbol(ASTFunction node)
+    {
+        List<ASTNode.DataType> ptypes = new ArrayList<ASTNode.DataType>();
+        for (ASTFunction.Parameter p : node.parameters) {
+            ptypes.add(p.type);
         }
+        insertSymbol(node.name, new Symbol(node.name, node.returnType, ptypes), node);
     }
 
     /**
@@ -74,36 +206,28 @@ public class BuildSymbolTables extends StaticAnalysis
      */
     protected void insertVariableSymbol(ASTVariable node)
     {
-        try {
-            if (node.type == ASTNode.DataType.VOID) {
-                throw new InvalidProgramException("Variable '" + node.name + "' cannot be null!");
-            }
-            if (node.arrayLength == 0) {
-                throw new InvalidProgramException("Array '" + node.name + "' must have non-zero length!");
-            }
-            Symbol symbol = new Symbol(node.name, node.type, node.arrayLength);
-            getCurrentTable().insert(node.name, symbol);
-        } catch (InvalidProgramException ex) {
-            addError(ex);
+        if (node.type == ASTNode.DataType.VOID) {
+            session.report(Diagnostic.Code.VOID_VARIABLE, node, node.name);
+            return;
+        }
+        if (node.arrayLength == 0) {
+            session.report(Diagnostic.Code.ZERO_LENGTH_ARRAY, node, node.name);
+            return;
         }
+        insertSymbol(node.name, new Symbol(node.name, node.type, node.arrayLength), node);
     }
 
     /**
      * Add a symbol for the given function parameter to the current (innermost) scope.
      */
-    protected void insertParamSymbol(ASTFunction.Parameter p)
+    protected void insertParamSymbol(ASTFunction.Parameter p, ASTFunction function)
     {
-        try {
-            Symbol symbol = new Symbol(p.name, p.type);
-            getCurrentTable().insert(p.name, symbol);
-        } catch (InvalidProgramException ex) {
-            addError(ex);
-        }
+        insertSymbol(p.name, new Symbol(p.name, p.type), function);
     }
     
     public void preVisit(ASTProgram node)
     {
-    	node.annotations.put("symbolTable", initializeScope());
+    	enterScope(node);
     }
 
     public void postVisit(ASTProgram node)
@@ -118,8 +242,7 @@ public class BuildSymbolTables extends StaticAnalysis
 
     public void preVisit(ASTBlock node)
     {
-    	node.annotations.put("symbolTable", initializeScope());
-
+    	enterScope(node);
     }
 
     public void postVisit(ASTBlock node)
@@ -130,13 +253,37 @@ public class BuildSymbolTables extends StaticAnalysis
     public void preVisit(ASTFunction node)
     {
     	insertFunctionSymbol(node);
-    	node.annotations.put("symbolTable", initializeScope());
+    	enterFunction(node);
+    }
+
+    /**
+     * Create the scope of a function and add its parameters to it.
+     */
+    protected void enterFunction(ASTFunction node)
+    {
+    	enterScope(node);
     	for(ASTFunction.Parameter p : node.parameters)
     	{
-    		insertParamSymbol(p);
+    		insertParamSymbol(p, node);
     	}
     }
 
+    /**
+     * Build the scopes of a single function, nested in an existing global
+     * scope, without visiting the rest of the program. The function's own
+     * symbol must already be in the global table.
+     * @param global populated program-level symbol table
+     * @param node function to build scopes for
+     */
+    public void buildFunctionScopes(SymbolTable global, ASTFunction node)
+    {
+    	tableStack.push(global);
+    	enterFunction(node);
+    	node.body.traverse(this);
+    	finalizeScope();
+    	tableStack.pop();
+    }
+
     public void postVisit(ASTFunction node)
     {
     	finalizeScope();
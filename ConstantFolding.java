@@ -0,0 +1,180 @@
+package edu.jmu.decaf;
+
+/**
+ * Static analysis pass to evaluate constant expressions. Must run after
+ * {@link TypeCheck}, whose {@link AnnotationKey#TYPE} annotations it relies
+ * on: only well-typed INT and BOOL expressions whose operands are all
+ * constant are folded. The value (an Integer or a Boolean, with the 32-bit
+ * wrap-around of Decaf ints) is stored in the {@link AnnotationKey#CONSTANT}
+ * annotation, so code generation can emit a single literal for the whole
+ * subtree. Division and modulo by a constant zero are left unfolded.
+ *
+ * With the values known, the pass also reports
+ * <ul>
+ * <li>constant array indices outside the declared length (an error),</li>
+ * <li>while loops whose guard is always false (a warning), and</li>
+ * <li>conditionals whose condition is constant (a warning).</li>
+ * </ul>
+ */
+public class ConstantFolding extends StaticAnalysis
+{
+    /**
+     * Receives the errors and warnings found by this pass.
+     */
+    protected AnalysisSession session;
+
+    public ConstantFolding()
+    {
+        this(AnalysisSession.global());
+    }
+
+    public ConstantFolding(AnalysisSession session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * Prepare this pass for another program analyzed in the given session.
+     */
+    public void reset(AnalysisSession session)
+    {
+        this.session = session;
+    }
+
+    /**
+     * @param session session the expression was folded in
+     * @return the constant value of an expression, or null if it is not
+     *         constant (or was not folded)
+     */
+    public static Object getConstant(ASTExpression ex, AnalysisSession session)
+    {
+        return AnnotationKey.CONSTANT.get(session.getNodeTable(), ex);
+    }
+
+    private Integer intValue(ASTExpression ex)
+    {
+        Object value = getConstant(ex, session);
+        return (value instanceof Integer ? (Integer)value : null);
+    }
+
+    private Boolean boolValue(ASTExpression ex)
+    {
+        Object value = getConstant(ex, session);
+        return (value instanceof Boolean ? (Boolean)value : null);
+    }
+
+    public void postVisit(ASTLiteral node)
+    {
+        if (node.type == ASTNode.DataType.INT && node.value instanceof Number) {
+            AnnotationKey.CONSTANT.set(session.getNodeTable(), node, ((Number)node.value).intValue());
+        } else if (node.type == ASTNode.DataType.BOOL && node.value instanceof Boolean) {
+            AnnotationKey.CONSTANT.set(session.getNodeTable(), node, node.value);
+        }
+    }
+
+    public void postVisit(ASTUnaryExpr node)
+    {
+        ASTNode.DataType type = AnnotationKey.TYPE.get(session.getNodeTable(), node);
+        if (type == ASTNode.DataType.INT && node.operator == ASTUnaryExpr.UnaryOp.NEG) {
+            Integer v = intValue(node.child);
+            if (v != null) {
+                AnnotationKey.CONSTANT.set(session.getNodeTable(), node, -v);
+            }
+        } else if (type == ASTNode.DataType.BOOL && node.operator == ASTUnaryExpr.UnaryOp.NOT) {
+            Boolean v = boolValue(node.child);
+            if (v != null) {
+                AnnotationKey.CONSTANT.set(session.getNodeTable(), node, !v);
+            }
+        }
+    }
+
+    public void postVisit(ASTBinaryExpr node)
+    {
+        if (AnnotationKey.TYPE.get(session.getNodeTable(), node) == null) {
+            return;     // ill-typed; already reported
+        }
+        Object value = null;
+        Integer l = intValue(node.leftChild);
+        Integer r = intValue(node.rightChild);
+        if (l != null && r != null) {
+            value = fold(node.operator, l, r);
+        } else {
+            Boolean lb = boolValue(node.leftChild);
+            Boolean rb = boolValue(node.rightChild);
+            if (lb != null && rb != null) {
+                value = fold(node.operator, lb, rb);
+            }
+        }
+        if (value != null) {
+            AnnotationKey.CONSTANT.set(session.getNodeTable(), node, value);
+        }
+    }
+
+    private static Object fold(ASTBinaryExpr.BinOp op, int l, int r)
+    {
+        switch (op) {
+            case ADD: return l + r;
+            case SUB: return l - r;
+            case MUL: return l * r;
+            case DIV: return (r == 0 ? null : (Object)(l / r));
+            case MOD: return (r == 0 ? null : (Object)(l % r));
+            case LT:  return l < r;
+            case LE:  return l <= r;
+            case GT:  return l > r;
+            case GE:  return l >= r;
+            case EQ:  return l == r;
+            case NE:  return l != r;
+            default:  return null;
+        }
+    }
+
+    private static Object fold(ASTBinaryExpr.BinOp op, boolean l, boolean r)
+    {
+        switch (op) {
+            case AND: return l && r;
+            case OR:  return l || r;
+            case EQ:  return l == r;
+            case NE:  return l != r;
+            default:  return null;
+        }
+    }
+
+    public void postVisit(ASTLocation node)
+    {
+        if (!node.hasIndex()) {
+            return;
+        }
+        Integer index = intValue(node.index);
+        if (index == null) {
+            return;
+        }
+        try {
+            Symbol s = TypeCheck.resolveSymbol(node, node.name, session);
+            if (s.length <= 1) {
+                return;     // not an array; TypeCheck decides what to report
+            }
+            if (index < 0 || index >= s.length) {
+                session.report(Diagnostic.Code.INDEX_OUT_OF_RANGE, node.index,
+                        index, node.name, s.length, node);
+            }
+        } catch (InvalidProgramException ex) {
+            // undeclared; already reported by TypeCheck
+        }
+    }
+
+    public void postVisit(ASTWhileLoop node)
+    {
+        if (Boolean.FALSE.equals(boolValue(node.guard))) {
+            session.warn(Diagnostic.Code.CONSTANT_FALSE_LOOP, node.guard, node.guard);
+        }
+    }
+
+    public void postVisit(ASTConditional node)
+    {
+        Boolean value = boolValue(node.condition);
+        if (value != null) {
+            session.warn(Diagnostic.Code.CONSTANT_CONDITION, node.condition,
+                    value, node.condition);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Statement-level control-flow graph of one function, built in a single
+ * walk over its body. Each {@link Block} holds a straight-line run of
+ * statements; conditionals, loops, returns, breaks and continues end a
+ * block and add the edges they imply. Expressions are not split up, since
+ * Decaf expressions cannot change control flow.
+ *
+ * While building, the graph records whether the end of the body is
+ * reachable, which {@link #canFallOffEnd()} answers for the "missing return
+ * on some path" check. Loop guards are not evaluated, so every loop may run
+ * zero times.
+ */
+public class ControlFlowGraph
+{
+    /**
+     * Straight-line run of statements.
+     */
+    public static class Block
+    {
+        /**
+         * Statements, in execution order. A loop's guard block holds the
+         * ASTWhileLoop; a block ending in a branch holds the ASTConditional.
+         */
+        public final List<ASTStatement> statements = new ArrayList<ASTStatement>();
+        /** Blocks control may continue with. */
+        public final List<Block> successors = new ArrayList<Block>();
+
+        void edge(Block to)
+        {
+            successors.add(to);
+        }
+    }
+
+    private final ASTFunction function;
+    private final List<Block> blocks = new ArrayList<Block>();
+    private final Block entry;
+    private final Block exit;
+    private boolean fallsOffEnd;
+
+    private ControlFlowGraph(ASTFunction function)
+    {
+        this.function = function;
+        entry = newBlock();
+        exit = newBlock();
+        Block last = build(function.body, entry, null, null);
+        if (last != null) {
+            last.edge(exit);
+        }
+        fallsOffEnd = (last != null && reachable().contains(last));
+    }
+
+    /**
+     * Build the graph of a function.
+     */
+    public static ControlFlowGraph build(ASTFunction function)
+    {
+        return new ControlFlowGraph(function);
+    }
+
+    private Block newBlock()
+    {
+        Block b = new Block();
+        blocks.add(b);
+        return b;
+    }
+
+    /**
+     * Add the statements of a block to the graph.
+     * @param current block control enters the statements in
+     * @param header guard block of the innermost loop (or null)
+     * @param after block following the innermost loop (or null)
+     * @return block control leaves the statements in, or null if the end
+     *         cannot be reached by falling through
+     */
+    private Block build(ASTBlock body, Block current, Block header, Block after)
+    {
+        for (ASTStatement s : body.statements) {
+            if (current == null) {
+                // unreachable code still gets a block
+                current = newBlock();
+            }
+            if (s instanceof ASTReturn) {
+                current.statements.add(s);
+                current.edge(exit);
+                current = null;
+            } else if (s instanceof ASTBreak) {
+                current.statements.add(s);
+                if (after != null) {
+                    current.edge(after);
+                }
+                current = null;
+            } else if (s instanceof ASTContinue) {
+                current.statements.add(s);
+                if (header != null) {
+                    current.edge(header);
+                }
+                current = null;
+            } else if (s instanceof ASTConditional) {
+                ASTConditional c = (ASTConditional)s;
+                current.statements.add(s);
+                Block join = newBlock();
+                Block thenBlock = newBlock();
+                current.edge(thenBlock);
+                Block thenEnd = build(c.ifBlock, thenBlock, header, after);
+                if (thenEnd != null) {
+                    thenEnd.edge(join);
+                }
+                if (c.hasElseBlock()) {
+                    Block elseBlock = newBlock();
+                    current.edge(elseBlock);
+                    Block elseEnd = build(c.elseBlock, elseBlock, header, after);
+                    if (elseEnd != null) {
+                        elseEnd.edge(join);
+                    }
+                } else {
+                    current.edge(join);
+                }
+                current = join;
+            } else if (s instanceof ASTWhileLoop) {
+                ASTWhileLoop w = (ASTWhileLoop)s;
+                Block guard = newBlock();
+                guard.statements.add(w);
+                current.edge(guard);
+                Block next = newBlock();
+                Block bodyBlock = newBlock();
+                guard.edge(bodyBlock);
+                guard.edge(next);
+                Block bodyEnd = build(w.body, bodyBlock, guard, next);
+                if (bodyEnd != null) {
+                    bodyEnd.edge(guard);
+                }
+                current = next;
+            } else if (s instanceof ASTBlock) {
+                current = build((ASTBlock)s, current, header, after);
+            } else {
+                current.statements.add(s);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return all blocks reachable from the entry
+     */
+    public Set<Block> reachable()
+    {
+        Set<Block> seen = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        Deque<Block> work = new ArrayDeque<Block>();
+        work.push(entry);
+        seen.add(entry);
+        while (!work.isEmpty()) {
+            for (Block b : work.pop().successors) {
+                if (seen.add(b)) {
+                    work.push(b);
+                }
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * @return the function this graph was built for
+     */
+    public ASTFunction getFunction()
+    {
+        return function;
+    }
+
+    /**
+     * @return all blocks, including unreachable ones
+     */
+    public List<Block> getBlocks()
+    {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public Block getEntry()
+    {
+        return entry;
+    }
+
+    /**
+     * @return the block every return (and the end of the body) leads to
+     */
+    public Block getExit()
+    {
+        return exit;
+    }
+
+    /**
+     * @return true if some path reaches the end of the body without a
+     *         return statement
+     */
+    public boolean canFallOffEnd()
+    {
+        return fallsOffEnd;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.jmu.decaf;
+
+/**
+ * A single static analysis error, stored as a code, the node it concerns and
+ * the arguments of its message. The message text is only built when
+ * {@link #render()} is called, so reporting an error costs one small
+ * allocation no matter how long its message is.
+ */
+public class Diagnostic
+{
+    /**
+     * Kinds of errors and their message templates. Arguments that are AST
+     * nodes are rendered as their source positions.
+     */
+    public enum Code
+    {
+        /** Pre-rendered message (e.g., carried by an exception). */
+        MESSAGE("%s"),
+        DUPLICATE_SYMBOL("Duplicate symbol: %s"),
+        VOID_VARIABLE("Variable '%s' cannot be null!"),
+        ZERO_LENGTH_ARRAY("Array '%s' must have non-zero length!"),
+        MAIN_RETURN_TYPE("Main function must return type int %s"),
+        MAIN_PARAMETERS("Main function cannot have parameters %s"),
+        MISSING_MAIN("Program must contain a main function"),
+        MULTIPLE_RETURNS("Function illegally contains multiple return statements %s"),
+        VOID_RETURN_VALUE("Illegal return statement for void function"),
+        RETURN_TYPE("Function must return type %s %s"),
+        MISSING_RETURN("Function %s does not return a value on every path %s"),
+        DUPLICATE_FUNCTION("Duplicate function names %s"),
+        LOCAL_ARRAY("arrays may only be declared in global scope"),
+        OPERAND_MISMATCH("Values must be of same type %s"),
+        INVALID_EXPRESSION("Invalid Expression %s"),
+        NEGATE_TYPE("Can only negate int types %s"),
+        NOT_TYPE("Can only NOT boolean types %s"),
+        ASSIGNMENT_MISMATCH("Must assign value of the same type %s"),
+        CONDITIONAL_GUARD("Condtionals must test for boolean values %s"),
+        WHILE_GUARD("While loops must test for boolean values %s"),
+        INDEX_TYPE("Index of array must be of type INT"),
+        ARRAY_LENGTH("Length of array must be greater than 0"),
+        ARRAY_WITHOUT_INDEX("array must be followed by index"),
+        UNDECLARED_SYMBOL("Symbol not found:  %s"),
+        UNDECLARED_FUNCTION("Calling undeclared function %s"),
+        METHOD_NOT_FOUND("Method not found:  %s"),
+        ARGUMENT_MISMATCH("Arguments do not match parameters for function "),
+        ARGUMENT_COUNT("Wrong number of arguments for function %s"),
+        BREAK_OUTSIDE_LOOP("invalid break statement outside whileloop"),
+        CONTINUE_OUTSIDE_LOOP("invalid continue statement outside whileloop"),
+        INDEX_OUT_OF_RANGE("Index %s is out of range for array '%s' of length %s %s"),
+        CONSTANT_FALSE_LOOP("While loop guard is always false %s"),
+        CONSTANT_CONDITION("Condition is always %s %s");
+
+        private final String template;
+
+        Code(String template)
+        {
+            this.template = template;
+        }
+
+        public String getTemplate()
+        {
+            return template;
+        }
+    }
+
+    /** Kind of error. */
+    public final Code code;
+    /** Node the error was found at, or null if there is none. */
+    public final ASTNode node;
+    private final Object[] args;
+
+    public Diagnostic(Code code, ASTNode node, Object... args)
+    {
+        this.code = code;
+        this.node = node;
+        this.args = args;
+    }
+
+    /**
+     * @return the message arguments (AST nodes are not yet rendered)
+     */
+    public Object[] getArguments()
+    {
+        return args.clone();
+    }
+
+    /**
+     * Build the error message.
+     */
+    public String render()
+    {
+        Object[] text = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof ASTNode) {
+                text[i] = ((ASTNode)args[i]).getSourceInfo().toString();
+            } else {
+                text[i] = String.valueOf(args[i]);
+            }
+        }
+        return String.format(code.template, text);
+    }
+
+    public String toString()
+    {
+        return render();
+    }
+}
@@ -0,0 +1,311 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Scoped symbol table backed by a single flat stack of bindings. Identifiers
+ * are interned to dense integer IDs; for every ID the table keeps the index
+ * of its innermost visible binding, so {@link #lookup} and duplicate checks
+ * in {@link #insert} are O(1) regardless of nesting depth. Opening a scope
+ * pushes a depth marker and closing it restores the shadowed bindings;
+ * neither allocates anything besides the scope's {@link Scope} view, which
+ * holds just the scope's index and its enclosing view.
+ *
+ * Bindings are never discarded, so each scope's {@link Scope} view stays
+ * valid after the scope is closed and can be stored in the
+ * {@link AnnotationKey#FLAT_SCOPE} annotation. A closed scope can be made
+ * active again with {@link #reenter} for O(1) lookups in a later pass; a
+ * lookup in a closed scope that is not re-entered searches the bindings of
+ * the scope and of each enclosing scope, so it is linear in their number.
+ * For code that expects a {@link SymbolTable}, {@link Scope#asSymbolTable}
+ * gives a view of a scope with the same lookups.
+ */
+public class FlatSymbolTable
+{
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private int[] head = new int[64];
+
+    // per binding
+    private int[] bindingId = new int[64];
+    private int[] bindingScope = new int[64];
+    private int[] shadowed = new int[64];
+    private int[] prevInScope = new int[64];
+    private Symbol[] symbols = new Symbol[64];
+    private int bindings = 0;
+
+    // per scope
+    private int[] lastInScope = new int[16];
+    private Scope[] views = new Scope[16];
+    private int scopes = 0;
+
+    // active scopes, innermost last
+    private int[] active = new int[16];
+    private int depth = 0;
+
+    /**
+     * Table that encloses the outermost flat scope (or null).
+     */
+    private final SymbolTable outer;
+
+    public FlatSymbolTable()
+    {
+        this(null);
+    }
+
+    /**
+     * @param outer table searched for names not bound in any flat scope
+     */
+    public FlatSymbolTable(SymbolTable outer)
+    {
+        this.outer = outer;
+        Arrays.fill(head, -1);
+    }
+
+    /**
+     * @return table searched for names not bound in any flat scope (or null)
+     */
+    public SymbolTable getOuter()
+    {
+        return outer;
+    }
+
+    /**
+     * @return true if some scope of this table is open
+     */
+    public boolean isOpen()
+    {
+        return depth > 0;
+    }
+
+    /**
+     * Map an identifier to its dense ID, assigning a new one if needed.
+     */
+    public int intern(String name)
+    {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = ids.size();
+            ids.put(name, id);
+            if (id >= head.length) {
+                int old = head.length;
+                head = Arrays.copyOf(head, old * 2);
+                Arrays.fill(head, old, head.length, -1);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Open a new innermost scope.
+     * @return persistent view of the new scope
+     */
+    public Scope push()
+    {
+        if (scopes == views.length) {
+            views = Arrays.copyOf(views, scopes * 2);
+            lastInScope = Arrays.copyOf(lastInScope, scopes * 2);
+        }
+        int s = scopes++;
+        Scope parent = (depth > 0 ? views[active[depth - 1]] : null);
+        views[s] = new Scope(s, parent);
+        lastInScope[s] = -1;
+        activate(s);
+        return views[s];
+    }
+
+    /**
+     * Make a closed scope the innermost scope again. Its enclosing scope
+     * should be the current innermost scope, as when it was created.
+     */
+    public void reenter(Scope scope)
+    {
+        activate(scope.scope);
+        for (int b = lastInScope[scope.scope]; b >= 0; b = prevInScope[b]) {
+            shadowed[b] = head[bindingId[b]];
+            head[bindingId[b]] = b;
+        }
+    }
+
+    /**
+     * Close the innermost scope, making shadowed bindings visible again.
+     */
+    public void pop()
+    {
+        assert(depth > 0);
+        int s = active[--depth];
+        for (int b = lastInScope[s]; b >= 0; b = prevInScope[b]) {
+            head[bindingId[b]] = shadowed[b];
+        }
+    }
+
+    /**
+     * Add a symbol to the innermost scope.
+     * @throws InvalidProgramException Thrown if the name is already declared
+     *         in the innermost scope
+     */
+    public void insert(String name, Symbol symbol)
+            throws InvalidProgramException
+    {
+        if (!declare(name, symbol)) {
+            throw new InvalidProgramException("Duplicate symbol: " + name);
+        }
+    }
+
+    /**
+     * Add a symbol to the innermost scope unless the name is already
+     * declared there; unlike {@link #insert} this never throws.
+     * @return false if the name was a duplicate (nothing is added)
+     */
+    public boolean declare(String name, Symbol symbol)
+    {
+        assert(depth > 0);
+        int s = active[depth - 1];
+        int id = intern(name);
+        int visible = head[id];
+        if (visible >= 0 && bindingScope[visible] == s) {
+            return false;
+        }
+        if (bindings == symbols.length) {
+            int size = bindings * 2;
+            bindingId = Arrays.copyOf(bindingId, size);
+            bindingScope = Arrays.copyOf(bindingScope, size);
+            shadowed = Arrays.copyOf(shadowed, size);
+            prevInScope = Arrays.copyOf(prevInScope, size);
+            symbols = Arrays.copyOf(symbols, size);
+        }
+        int b = bindings++;
+        bindingId[b] = id;
+        bindingScope[b] = s;
+        shadowed[b] = visible;
+        prevInScope[b] = lastInScope[s];
+        symbols[b] = symbol;
+        lastInScope[s] = b;
+        head[id] = b;
+        return true;
+    }
+
+    /**
+     * Find the innermost visible binding of a name in O(1).
+     * @throws InvalidProgramException Thrown if the symbol is not found
+     */
+    public Symbol lookup(String name)
+            throws InvalidProgramException
+    {
+        Integer id = ids.get(name);
+        if (id != null && head[id] >= 0) {
+            return symbols[head[id]];
+        }
+        if (outer != null) {
+            return outer.lookup(name);
+        }
+        throw new InvalidProgramException("Symbol not found: " + name);
+    }
+
+    private void activate(int s)
+    {
+        if (depth == active.length) {
+            active = Arrays.copyOf(active, depth * 2);
+        }
+        active[depth++] = s;
+    }
+
+    private boolean isInnermost(int s)
+    {
+        return depth > 0 && active[depth - 1] == s;
+    }
+
+    /**
+     * Persistent view of one scope. While the scope is the innermost active
+     * one, operations go straight to the flat table; afterwards lookups
+     * search the scope's own bindings, then its enclosing scopes and finally
+     * the outer table.
+     */
+    public class Scope
+    {
+        private final int scope;
+        private final Scope parent;
+        private SymbolTable table = null;
+
+        Scope(int scope, Scope parent)
+        {
+            this.scope = scope;
+            this.parent = parent;
+        }
+
+        /**
+         * @return the flat table this scope belongs to
+         */
+        public FlatSymbolTable getTable()
+        {
+            return FlatSymbolTable.this;
+        }
+
+        /**
+         * @return a {@link SymbolTable} that forwards insert and lookup to
+         *         this scope; its parent is the view of the enclosing scope
+         *         (or the outer table)
+         */
+        public SymbolTable asSymbolTable()
+        {
+            if (table == null) {
+                table = new ScopeTable(parent != null ? parent.asSymbolTable() : outer);
+            }
+            return table;
+        }
+
+        public void insert(String name, Symbol symbol)
+                throws InvalidProgramException
+        {
+            if (!isInnermost(scope)) {
+                throw new IllegalStateException("scope is not open");
+            }
+            FlatSymbolTable.this.insert(name, symbol);
+        }
+
+        public Symbol lookup(String name)
+                throws InvalidProgramException
+        {
+            if (isInnermost(scope)) {
+                return FlatSymbolTable.this.lookup(name);
+            }
+            Integer id = ids.get(name);
+            if (id != null) {
+                for (int b = lastInScope[scope]; b >= 0; b = prevInScope[b]) {
+                    if (bindingId[b] == id) {
+                        return symbols[b];
+                    }
+                }
+            }
+            if (parent != null) {
+                return parent.lookup(name);
+            }
+            if (outer != null) {
+                return outer.lookup(name);
+            }
+            throw new InvalidProgramException("Symbol not found: " + name);
+        }
+
+        /**
+         * SymbolTable view of the enclosing scope.
+         */
+        private class ScopeTable extends SymbolTable
+        {
+            ScopeTable(SymbolTable parent)
+            {
+                super(parent);
+            }
+
+            public void insert(String name, Symbol symbol)
+                    throws InvalidProgramException
+            {
+                Scope.this.insert(name, symbol);
+            }
+
+            public Symbol lookup(String name)
+                    throws InvalidProgramException
+            {
+                return Scope.this.lookup(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Static analysis; parent links, symbol tables, name resolution and type
+ * checking in a single traversal.
+ *
+ * Each visit runs the corresponding visits of {@link BuildParentLinks},
+ * {@link BuildSymbolTables} and {@link BottomUpTypeCheck} back to back, so
+ * every node is dispatched once instead of three times and is still hot in
+ * the cache when it is type checked. Decaf declares variables before the
+ * statements of their scope, so every variable use can be resolved against
+ * the scope under construction. Functions may be called before they are
+ * declared; instead of a second pass for those, the function signature
+ * index is built from the function headers before any body is visited.
+ *
+ * Reports the same errors as running the three passes in sequence, but in
+ * traversal order: a declaration error is reported next to the type errors
+ * around it rather than before all of them.
+ * <pre>
+ *     program.traverse(new FusedAnalysis());
+ * </pre>
+ */
+public class FusedAnalysis extends BottomUpTypeCheck
+{
+    protected BuildParentLinks links;
+    protected BuildSymbolTables tables;
+
+    public FusedAnalysis()
+    {
+        this(AnalysisSession.global(), false);
+    }
+
+    /**
+     * @param session receives all errors
+     * @param flatTables build function and block scopes in one
+     *        {@link FlatSymbolTable}
+     */
+    public FusedAnalysis(AnalysisSession session, boolean flatTables)
+    {
+        super(session);
+        links = new BuildParentLinks();
+        tables = new BuildSymbolTables(session, flatTables);
+    }
+
+    /**
+     * Prepare this pass for another program, keeping the kind of tables.
+     * @param session receives the errors found in the next program
+     */
+    public void reset(AnalysisSession session)
+    {
+        reset(session, tables.flatTables);
+    }
+
+    /**
+     * Prepare this pass for another program.
+     * @param session receives the errors found in the next program
+     * @param flatTables build function and block scopes in one
+     *        {@link FlatSymbolTable}
+     */
+    public void reset(AnalysisSession session, boolean flatTables)
+    {
+        super.reset(session);
+        links = new BuildParentLinks();
+        tables.reset(session, flatTables);
+    }
+
+    /**
+     * Builds the function signature index from the function headers, since
+     * the program-level symbol table is still empty when the program is
+     * pre-visited. Indexes exactly the functions BuildSymbolTables will
+     * insert: the first declaration of each name not taken by a global
+     * variable.
+     * @param node is the ASTProgram node
+     */
+    protected void indexFunctions(ASTProgram node)
+    {
+        Set<String> taken = new HashSet<String>();
+        for (ASTVariable v : node.variables)
+        {
+            if (v.type != ASTNode.DataType.VOID && v.arrayLength != 0)
+            {
+                taken.add(v.name);
+            }
+        }
+        for (ASTFunction f : node.functions)
+        {
+            if (!taken.add(f.name))
+            {
+                continue;
+            }
+            List<ASTNode.DataType> ptypes = new ArrayList<ASTNode.DataType>();
+            for (ASTFunction.Parameter p : f.parameters)
+            {
+                ptypes.add(p.type);
+            }
+            funcIndex.put(f.name, new Symbol(f.name, f.returnType, ptypes));
+        }
+    }
+
+    /**
+     * Bind a use of the given name to its symbol in the scope under
+     * construction, or to a function declared further down.
+     */
+    protected void bind(ASTNode node, String name)
+    {
+        AnalysisMetrics metrics = session.getMetrics();
+        if (metrics != null) {
+            metrics.countLookup();
+        }
+        Symbol symbol = null;
+        try {
+            symbol = tables.lookup(name);
+        } catch (InvalidProgramException ex) {
+            symbol = funcIndex.get(name);
+        }
+        if (symbol != null) {
+            AnnotationKey.SYMBOL.set(session.getNodeTable(), node, symbol);
+        }
+        if (AnalysisTrace.isEnabled()) {
+            AnalysisTrace.event("FusedAnalysis", node, symbol);
+        }
+    }
+
+    public void preVisit(ASTProgram node)
+    {
+        links.preVisit(node);
+        tables.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTProgram node)
+    {
+        super.postVisit(node);
+        tables.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTVariable node)
+    {
+        links.preVisit(node);
+        tables.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTVariable node)
+    {
+        super.postVisit(node);
+        tables.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTFunction node)
+    {
+        links.preVisit(node);
+        tables.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTFunction node)
+    {
+        super.postVisit(node);
+        tables.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTBlock node)
+    {
+        links.preVisit(node);
+        tables.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTBlock node)
+    {
+        super.postVisit(node);
+        tables.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTAssignment node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTAssignment node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTVoidFunctionCall node)
+    {
+        links.preVisit(node);
+        bind(node, node.name);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTVoidFunctionCall node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTConditional node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTConditional node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTWhileLoop node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTWhileLoop node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTReturn node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTReturn node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTBreak node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTBreak node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTContinue node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTContinue node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTBinaryExpr node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTBinaryExpr node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTUnaryExpr node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTUnaryExpr node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTLocation node)
+    {
+        links.preVisit(node);
+        bind(node, node.name);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTLocation node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTFunctionCall node)
+    {
+        links.preVisit(node);
+        bind(node, node.name);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTFunctionCall node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+
+    public void preVisit(ASTLiteral node)
+    {
+        links.preVisit(node);
+        super.preVisit(node);
+    }
+
+    public void postVisit(ASTLiteral node)
+    {
+        super.postVisit(node);
+        links.postVisit(node);
+    }
+}
@@ -0,0 +1,291 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Incremental static analysis for editor loops. {@link #analyze} checks a
+ * whole program and remembers, per function, its fingerprint, the functions
+ * it calls and its diagnostics. {@link #update} takes that result and a newly
+ * parsed version of the program, and rebuilds symbol tables and re-runs type
+ * checking only for functions that
+ * <ul>
+ * <li>changed (different {@link ASTFingerprint}), or</li>
+ * <li>call a function whose signature (return type and parameter types from
+ * its {@link Symbol}) changed, appeared or disappeared.</li>
+ * </ul>
+ * Every other function is reused as analyzed before: its (annotated) AST
+ * replaces the freshly parsed one in the new program, linked to the new
+ * program and moved to the lines the function now starts on, and its
+ * diagnostics are carried over and rendered at the new positions. Since
+ * fingerprints ignore where a function starts, an edit that only shifts the
+ * lines below it re-analyzes nothing but the edited function. Reused
+ * functions keep the scopes they were built with, whose parent is the
+ * previous global table; lookups through it give the same results, since
+ * only functions with unchanged dependencies are reused.
+ *
+ * The program-level work (global scope, function index, check for main) is
+ * redone on every update; it is proportional to the number of declarations,
+ * not to the size of the function bodies. A change to the global variables
+ * or a duplicated function name causes a full re-analysis.
+ *
+ * Each function is analyzed in its own {@link AnalysisSession}, whose
+ * {@link NodeTable} holds the function's bindings and types; only its
+ * diagnostics are kept. The scopes a function's nodes are annotated with
+ * stay on those nodes, so the edited program must be freshly parsed (not
+ * an in-place modification of the previous tree).
+ */
+public class IncrementalAnalysis
+{
+    /**
+     * What is remembered about one function between updates.
+     */
+    protected static class FunctionState
+    {
+        ASTFunction node;
+        String fingerprint;
+        Set<String> callees;
+        List<Diagnostic> diagnostics;
+        List<String> errors;
+    }
+
+    /**
+     * Moves every node of a subtree by a number of lines.
+     */
+    private static class Relocate extends DefaultASTVisitor
+    {
+        private final String filename;
+        private final int shift;
+        private final Map<SourceInfo, SourceInfo> moved =
+            new IdentityHashMap<SourceInfo, SourceInfo>();
+
+        Relocate(String filename, int shift)
+        {
+            this.filename = filename;
+            this.shift = shift;
+        }
+
+        private void move(ASTNode node)
+        {
+            SourceInfo s = moved.get(node.getSourceInfo());
+            if (s == null) {
+                s = new SourceInfo(filename, node.getSourceInfo().lineNumber + shift);
+                moved.put(node.getSourceInfo(), s);
+            }
+            node.setSourceInfo(s);
+        }
+
+        public void preVisit(ASTFunction node)         { move(node); }
+        public void preVisit(ASTBlock node)            { move(node); }
+        public void preVisit(ASTVariable node)         { move(node); }
+        public void preVisit(ASTAssignment node)       { move(node); }
+        public void preVisit(ASTVoidFunctionCall node) { move(node); }
+        public void preVisit(ASTConditional node)      { move(node); }
+        public void preVisit(ASTWhileLoop node)        { move(node); }
+        public void preVisit(ASTReturn node)           { move(node); }
+        public void preVisit(ASTBreak node)            { move(node); }
+        public void preVisit(ASTContinue node)         { move(node); }
+        public void preVisit(ASTBinaryExpr node)       { move(node); }
+        public void preVisit(ASTUnaryExpr node)        { move(node); }
+        public void preVisit(ASTLocation node)         { move(node); }
+        public void preVisit(ASTFunctionCall node)     { move(node); }
+        public void preVisit(ASTLiteral node)          { move(node); }
+    }
+
+    /**
+     * Result of an analysis, to be passed to the next {@link #update}.
+     */
+    public static class Result
+    {
+        /** Analyzed program (with reused functions grafted in). */
+        public final ASTProgram program;
+        /** Names of functions that were (re)analyzed to produce this result. */
+        public final Set<String> reanalyzed = new LinkedHashSet<String>();
+
+        String globalsFingerprint;
+        boolean hasDuplicates;
+        final List<FunctionState> states = new ArrayList<FunctionState>();
+        final Map<String, FunctionState> functions = new HashMap<String, FunctionState>();
+        final Map<String, String> signatures = new HashMap<String, String>();
+        final List<String> declarationErrors = new ArrayList<String>();
+        final List<String> programErrors = new ArrayList<String>();
+
+        Result(ASTProgram program)
+        {
+            this.program = program;
+        }
+
+        /**
+         * @return all diagnostics: declaration errors, then each function's
+         *         errors in source order, then program-level type errors
+         */
+        public List<String> getErrors()
+        {
+            List<String> errors = new ArrayList<String>(declarationErrors);
+            for (FunctionState state : states) {
+                errors.addAll(state.errors);
+            }
+            errors.addAll(programErrors);
+            return errors;
+        }
+    }
+
+    /**
+     * Analyze a whole program.
+     * @param program freshly parsed syntax tree
+     * @return analysis result to pass to {@link #update}
+     */
+    public Result analyze(ASTProgram program)
+    {
+        return update(null, program);
+    }
+
+    /**
+     * Re-analyze an edited program, reusing what has not changed.
+     * @param previous result for the previous version (or null)
+     * @param edited freshly parsed syntax tree of the new version
+     * @return analysis result for the new version
+     */
+    public Result update(Result previous, ASTProgram edited)
+    {
+        Result result = new Result(edited);
+
+        // program-level scope: globals and function signatures
+        AnalysisSession declSession = new AnalysisSession();
+        BuildSymbolTables symbols = new BuildSymbolTables(declSession);
+        BuildParentLinks links = new BuildParentLinks();
+        links.preVisit(edited);
+        symbols.preVisit(edited);
+        for (ASTVariable v : edited.variables) {
+            v.traverse(links);
+            v.traverse(symbols);
+        }
+        Set<String> names = new HashSet<String>();
+        for (ASTFunction f : edited.functions) {
+            symbols.insertFunctionSymbol(f);
+            if (!names.add(f.name)) {
+                result.hasDuplicates = true;
+            }
+        }
+        SymbolTable global = AnnotationKey.SYMBOL_TABLE.get(edited);
+        for (ASTFunction f : edited.functions) {
+            result.signatures.put(f.name, signature(global, f.name));
+        }
+        ASTFingerprint globals = new ASTFingerprint();
+        for (ASTVariable v : edited.variables) {
+            v.traverse(globals);
+        }
+        result.globalsFingerprint = globals.getDigest();
+        result.declarationErrors.addAll(declSession.getErrors());
+
+        boolean reuse = previous != null && !previous.hasDuplicates && !result.hasDuplicates
+            && previous.globalsFingerprint.equals(result.globalsFingerprint);
+
+        AnalysisSession programSession = new AnalysisSession();
+        TypeCheck root = new BottomUpTypeCheck(programSession);
+        root.preVisit(edited);
+
+        for (int i = 0; i < edited.functions.size(); i++) {
+            ASTFunction f = edited.functions.get(i);
+            ASTFingerprint fp = new ASTFingerprint();
+            f.traverse(fp);
+            String fingerprint = fp.getDigest();
+
+            FunctionState old = reuse ? previous.functions.get(f.name) : null;
+            if (old != null && old.fingerprint.equals(fingerprint)
+                    && calleesUnchanged(old.callees, previous, result)) {
+                FunctionState state = move(old, f);
+                // link the reused nodes to the new program, not the old one
+                state.node.traverse(links);
+                edited.functions.set(i, state.node);
+                result.states.add(state);
+                result.functions.put(f.name, state);
+                continue;
+            }
+
+            FunctionState state = new FunctionState();
+            state.node = f;
+            state.fingerprint = fingerprint;
+            state.callees = fp.getCallees();
+            AnalysisSession session = new AnalysisSession();
+            f.traverse(links);
+            new BuildSymbolTables(session).buildFunctionScopes(global, f);
+            f.traverse(new ResolveSymbols(session));
+            f.traverse(root.forFunction(session));
+            state.diagnostics = session.getDiagnostics();
+            state.errors = session.getErrors();
+            result.states.add(state);
+            if (!result.functions.containsKey(f.name)) {
+                result.functions.put(f.name, state);
+            }
+            result.reanalyzed.add(f.name);
+        }
+
+        root.postVisit(edited);
+        links.postVisit(edited);
+        result.programErrors.addAll(programSession.getErrors());
+        return result;
+    }
+
+    /**
+     * Reuse an analyzed function at the position of its edited copy: move
+     * its nodes to the lines the copy starts on and render its diagnostics
+     * there.
+     * @param old state of the function in the previous result
+     * @param edited freshly parsed copy with the same fingerprint
+     * @return state of the function in the new result
+     */
+    private static FunctionState move(FunctionState old, ASTFunction edited)
+    {
+        SourceInfo from = old.node.getSourceInfo();
+        SourceInfo to = edited.getSourceInfo();
+        FunctionState state = new FunctionState();
+        state.node = old.node;
+        state.fingerprint = old.fingerprint;
+        state.callees = old.callees;
+        state.diagnostics = old.diagnostics;
+        if (to.lineNumber == from.lineNumber && String.valueOf(to.filename).equals(
+                    String.valueOf(from.filename))) {
+            state.errors = old.errors;
+            return state;
+        }
+        old.node.traverse(new Relocate(to.filename, to.lineNumber - from.lineNumber));
+        state.errors = new ArrayList<String>();
+        for (Diagnostic d : state.diagnostics) {
+            state.errors.add(d.render());
+        }
+        return state;
+    }
+
+    /**
+     * Whether every function in callees has the same signature (or is
+     * equally missing) in both results.
+     */
+    private static boolean calleesUnchanged(Set<String> callees, Result before, Result after)
+    {
+        for (String c : callees) {
+            String a = before.signatures.get(c);
+            String b = after.signatures.get(c);
+            if (a == null ? b != null : !a.equals(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the signature of a function symbol, or null if the name does
+     * not resolve to a function.
+     */
+    private static String signature(SymbolTable global, String name)
+    {
+        try {
+            Symbol s = global.lookup(name);
+            if (s.location != Symbol.MemLoc.STATIC_FUNC) {
+                return null;
+            }
+            return s.type + " " + s.ptypes;
+        } catch (InvalidProgramException ex) {
+            return null;
+        }
+    }
+}
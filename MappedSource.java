@@ -0,0 +1,86 @@
+package edu.jmu.decaf;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only {@link CharSequence} view of a memory-mapped source file. Each
+ * byte is one character, so offsets are byte offsets; nothing is decoded or
+ * copied onto the heap until a (sub)sequence is turned into a String.
+ * Subsequences are views that share the mapping.
+ *
+ * {@link #toString()} decodes the bytes as UTF-8, like the other ways source
+ * is read. The bytes of a non-ASCII character show up in {@link #charAt} as
+ * several characters of 0x80 and above, which never match the ASCII
+ * characters Decaf syntax is made of, so a subsequence cut at such a
+ * character decodes correctly.
+ *
+ * Files are limited to 2GB, since CharSequence offsets are ints.
+ */
+public class MappedSource implements CharSequence
+{
+    private final MappedByteBuffer buffer;
+    private final int start;
+    private final int length;
+
+    private MappedSource(MappedByteBuffer buffer, int start, int length)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Map a file into memory.
+     * @throws IOException Thrown if the file cannot be read or is too large
+     */
+    public static MappedSource map(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map (" + size + " bytes)");
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size),
+                    0, (int)size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return (char)(buffer.get(start + index) & 0xff);
+    }
+
+    public CharSequence subSequence(int from, int to)
+    {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to
+                    + "), length " + length);
+        }
+        return new MappedSource(buffer, start + from, to - from);
+    }
+
+    public String toString()
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,35 @@
+package edu.jmu.decaf;
+
+/**
+ * Counts the nodes of an AST. Used to report node counts in
+ * {@link AnalysisMetrics}.
+ */
+public class NodeCounter extends DefaultASTVisitor
+{
+    private long count = 0;
+
+    /**
+     * @return number of nodes visited so far
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public void preVisit(ASTProgram node)          { count++; }
+    public void preVisit(ASTVariable node)         { count++; }
+    public void preVisit(ASTFunction node)         { count++; }
+    public void preVisit(ASTBlock node)            { count++; }
+    public void preVisit(ASTAssignment node)       { count++; }
+    public void preVisit(ASTVoidFunctionCall node) { count++; }
+    public void preVisit(ASTConditional node)      { count++; }
+    public void preVisit(ASTWhileLoop node)        { count++; }
+    public void preVisit(ASTReturn node)           { count++; }
+    public void preVisit(ASTBreak node)            { count++; }
+    public void preVisit(ASTContinue node)         { count++; }
+    public void preVisit(ASTBinaryExpr node)       { count++; }
+    public void preVisit(ASTUnaryExpr node)        { count++; }
+    public void preVisit(ASTLocation node)         { count++; }
+    public void preVisit(ASTFunctionCall node)     { count++; }
+    public void preVisit(ASTLiteral node)          { count++; }
+}
@@ -0,0 +1,100 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Side table for the node annotations there is one of per expression
+ * ({@link AnnotationKey#SYMBOL}, {@link AnnotationKey#TYPE} and
+ * {@link AnnotationKey#CONSTANT}), kept by an {@link AnalysisSession}
+ * instead of in each node's {@link ASTNode#annotations} map. Every key has
+ * one {@link IdentityHashMap}, which stores its entries in a single flat
+ * array: an annotation costs two array slots rather than an entry object
+ * (plus, for a node's first annotation, the bucket array of its map), and
+ * no string is hashed to reach it. A key's map is only created when the
+ * first value is stored under it.
+ *
+ * A table may be layered over a base table, whose annotations it sees but
+ * never changes. Passes running on other threads read the annotations of
+ * the analysis through such a table and keep their own results in it until
+ * they are merged with {@link #addAll}.
+ */
+public class NodeTable
+{
+    private final NodeTable base;
+    private final List<IdentityHashMap<ASTNode, Object>> maps =
+        new ArrayList<IdentityHashMap<ASTNode, Object>>();
+
+    public NodeTable()
+    {
+        this(null);
+    }
+
+    /**
+     * @param base table whose annotations are visible through this one (or
+     *        null)
+     */
+    public NodeTable(NodeTable base)
+    {
+        this.base = base;
+    }
+
+    private IdentityHashMap<ASTNode, Object> map(int slot, boolean create)
+    {
+        while (create && maps.size() <= slot) {
+            maps.add(null);
+        }
+        IdentityHashMap<ASTNode, Object> map = (slot < maps.size() ? maps.get(slot) : null);
+        if (map == null && create) {
+            map = new IdentityHashMap<ASTNode, Object>();
+            maps.set(slot, map);
+        }
+        return map;
+    }
+
+    Object get(int slot, ASTNode node)
+    {
+        IdentityHashMap<ASTNode, Object> map = map(slot, false);
+        if (map != null) {
+            Object value = map.get(node);
+            if (value != null || map.containsKey(node)) {
+                return value;
+            }
+        }
+        return (base != null ? base.get(slot, node) : null);
+    }
+
+    boolean containsKey(int slot, ASTNode node)
+    {
+        IdentityHashMap<ASTNode, Object> map = map(slot, false);
+        if (map != null && map.containsKey(node)) {
+            return true;
+        }
+        return base != null && base.containsKey(slot, node);
+    }
+
+    void put(int slot, ASTNode node, Object value)
+    {
+        map(slot, true).put(node, value);
+    }
+
+    /**
+     * Add all annotations stored in another table (but not in its base).
+     */
+    public void addAll(NodeTable other)
+    {
+        for (int slot = 0; slot < other.maps.size(); slot++) {
+            IdentityHashMap<ASTNode, Object> map = other.maps.get(slot);
+            if (map != null) {
+                map(slot, true).putAll(map);
+            }
+        }
+    }
+
+    /**
+     * Forget all annotations (the base table is not changed).
+     */
+    public void clear()
+    {
+        maps.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Type checks the functions of one program in parallel. Must run after
+ * {@link BuildSymbolTables} (and optionally {@link ResolveSymbols}).
+ *
+ * The program-level work (function index, global variables and the check for
+ * main) is done by a single {@link TypeCheck}; each function body is then
+ * checked by its own checker on a fork-join pool, reading the finished global
+ * scope without modifying it. Each checker reports into a
+ * {@link AnalysisSession#fork} of the session; errors are merged in the same
+ * order a sequential traversal would report them (function by function in
+ * source order, followed by the program-level checks), together with the
+ * node annotations.
+ */
+public class ParallelTypeCheck
+{
+    private final ForkJoinPool pool;
+    private boolean requireReturns = false;
+
+    public ParallelTypeCheck()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelTypeCheck(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Report non-void functions that can end without returning a value
+     * (see {@link TypeCheck#setRequireReturns}).
+     */
+    public void setRequireReturns(boolean require)
+    {
+        requireReturns = require;
+    }
+
+    /**
+     * Type check a program, reporting into the given session.
+     * @param program syntax tree annotated with symbol tables
+     * @param session receives all type errors
+     */
+    public void check(ASTProgram program, final AnalysisSession session)
+    {
+        final TypeCheck root = new BottomUpTypeCheck(session);
+        root.setRequireReturns(requireReturns);
+        root.preVisit(program);
+        for (ASTVariable v : program.variables) {
+            v.traverse(root);
+        }
+
+        if (program.functions.size() < 2 || pool.getParallelism() < 2) {
+            for (ASTFunction f : program.functions) {
+                f.traverse(root);
+            }
+        } else {
+            List<Callable<AnalysisSession>> tasks = new ArrayList<Callable<AnalysisSession>>();
+            for (final ASTFunction f : program.functions) {
+                tasks.add(new Callable<AnalysisSession>() {
+                    public AnalysisSession call() {
+                        AnalysisSession local = session.fork();
+                        try {
+                            f.traverse(root.forFunction(local));
+                        } catch (AnalysisSession.ErrorLimitException ex) {
+                            // this function alone reaches the limit; merged below
+                        }
+                        return local;
+                    }
+                });
+            }
+            for (Future<AnalysisSession> result : pool.invokeAll(tasks)) {
+                AnalysisSession local = join(result);
+                if (session.getMetrics() != null) {
+                    session.getMetrics().merge(local.getMetrics());
+                }
+                if (session.getNodeTable() != null) {
+                    session.getNodeTable().addAll(local.getNodeTable());
+                }
+                for (Diagnostic d : local.getDiagnostics()) {
+                    session.report(d);
+                }
+            }
+        }
+
+        root.postVisit(program);
+    }
+
+    private static AnalysisSession join(Future<AnalysisSession> result)
+    {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("type check interrupted");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+
+/**
+ * Static analysis pass to resolve names. Must run after
+ * {@link BuildSymbolTables}. Visits an AST, maintaining a stack of the
+ * symbol tables built by that pass, and binds every location, function call
+ * and void function call to its {@link Symbol} by annotating the node with
+ * {@link AnnotationKey#SYMBOL} in the session's {@link NodeTable}. Later
+ * passes reporting into the same session can then resolve a use in O(1)
+ * instead of walking parent links and enclosing scopes again.
+ *
+ * Names that cannot be resolved are left unbound; reporting them is up to
+ * the pass that uses them (e.g., {@link TypeCheck}).
+ */
+public class ResolveSymbols extends StaticAnalysis
+{
+    /**
+     * Stack of symbol tables, representing all active nested scopes.
+     */
+    protected Deque<SymbolTable> tableStack;
+
+    /**
+     * Stack of active {@link FlatSymbolTable} scopes, nested inside the
+     * innermost symbol table.
+     */
+    protected Deque<FlatSymbolTable.Scope> flatStack;
+
+    /**
+     * Session whose node table receives the bindings.
+     */
+    protected AnalysisSession session;
+
+    public ResolveSymbols()
+    {
+        this(AnalysisSession.global());
+    }
+
+    public ResolveSymbols(AnalysisSession session)
+    {
+        this.session = session;
+        tableStack = new ArrayDeque<SymbolTable>();
+        flatStack = new ArrayDeque<FlatSymbolTable.Scope>();
+    }
+
+    /**
+     * Prepare this pass for another program (e.g., after a traversal that
+     * was abandoned half way).
+     */
+    public void reset()
+    {
+        tableStack.clear();
+        flatStack.clear();
+    }
+
+    /**
+     * Prepare this pass for another program analyzed in the given session.
+     */
+    public void reset(AnalysisSession session)
+    {
+        reset();
+        this.session = session;
+    }
+
+    /**
+     * Make the symbol table attached to the given node the innermost scope.
+     * Scopes of a {@link FlatSymbolTable} are re-entered in their table, so
+     * lookups in them stay O(1).
+     */
+    protected void enterScope(ASTNode node)
+    {
+        FlatSymbolTable.Scope scope = AnnotationKey.FLAT_SCOPE.get(node);
+        if (scope != null) {
+            scope.getTable().reenter(scope);
+            flatStack.push(scope);
+        } else {
+            tableStack.push(AnnotationKey.SYMBOL_TABLE.get(node));
+        }
+    }
+
+    /**
+     * Pop the stack and move outwards one scope level.
+     */
+    protected void exitScope()
+    {
+        if (!flatStack.isEmpty()) {
+            flatStack.pop().getTable().pop();
+            return;
+        }
+        assert(tableStack.size() > 0);
+        tableStack.pop();
+    }
+
+    /**
+     * Bind a use of the given name to its symbol in the innermost scope.
+     */
+    protected void bind(ASTNode node, String name)
+    {
+        AnalysisMetrics metrics = session.getMetrics();
+        if (metrics != null) {
+            metrics.countLookup();
+        }
+        Symbol symbol = null;
+        try {
+            if (!flatStack.isEmpty()) {
+                symbol = flatStack.peek().lookup(name);
+            } else {
+                assert(tableStack.size() > 0);
+                symbol = tableStack.peek().lookup(name);
+            }
+            AnnotationKey.SYMBOL.set(session.getNodeTable(), node, symbol);
+        } catch (InvalidProgramException ex) {
+            // left unbound; reported by the pass that needs the symbol
+        }
+        if (AnalysisTrace.isEnabled()) {
+            AnalysisTrace.event("ResolveSymbols", node, symbol);
+        }
+    }
+
+    public void preVisit(ASTProgram node)
+    {
+        enterScope(node);
+    }
+
+    public void postVisit(ASTProgram node)
+    {
+        exitScope();
+    }
+
+    public void preVisit(ASTFunction node)
+    {
+        enterScope(node);
+    }
+
+    public void postVisit(ASTFunction node)
+    {
+        exitScope();
+    }
+
+    public void preVisit(ASTBlock node)
+    {
+        enterScope(node);
+    }
+
+    public void postVisit(ASTBlock node)
+    {
+        exitScope();
+    }
+
+    public void preVisit(ASTLocation node)
+    {
+        bind(node, node.name);
+    }
+
+    public void preVisit(ASTFunctionCall node)
+    {
+        bind(node, node.name);
+    }
+
+    public void preVisit(ASTVoidFunctionCall node)
+    {
+        bind(node, node.name);
+    }
+}
@@ -0,0 +1,396 @@
+package edu.jmu.decaf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Analyzes a program one top-level declaration at a time, for sources too
+ * large to hold as a whole. The input is split into declarations by a
+ * {@link DeclarationReader}; each one is lexed and parsed on its own and
+ * entered into the global scope. A function is type checked against the
+ * global scope as soon as it has been read and is then dropped, so peak
+ * memory is bounded by the largest function (plus the global symbols).
+ *
+ * A function that uses a name not declared yet (a forward call, or a global
+ * declared further down) cannot be checked right away. Its text is spilled
+ * to a temporary file instead and checked after the whole input has been
+ * read, again one function at a time.
+ *
+ * Reports the same errors as {@link AnalysisPipeline}, with two
+ * differences: errors are reported in the order declarations are checked,
+ * and declarations enter the global scope in source order, so if a global
+ * variable and a function share a name, the later one is the duplicate.
+ */
+public class StreamingAnalyzer
+{
+    /**
+     * Source text of one top-level declaration.
+     */
+    public static class Declaration
+    {
+        /** Text of the declaration, including any whitespace before it. */
+        public final String text;
+        /** Line of the input the text starts on (1-based). */
+        public final int line;
+
+        public Declaration(String text, int line)
+        {
+            this.text = text;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Splits Decaf source into top-level declarations without lexing it: a
+     * declaration ends at a semicolon or closing brace at nesting depth
+     * zero, outside of string literals and comments. Reads either from a
+     * {@link Reader} or from a {@link CharSequence} such as a
+     * {@link MappedSource}; in the latter case only the declaration being
+     * returned is copied. Lines are counted while scanning, in both cases.
+     */
+    public static class DeclarationReader
+    {
+        private final Reader in;
+        private final CharSequence chars;
+        private int position = 0;
+        private int line = 1;
+
+        // scanner state
+        private int depth;
+        private boolean content;
+        private boolean inString;
+        private boolean escape;
+        private boolean inComment;
+        private char prev;
+
+        public DeclarationReader(Reader in)
+        {
+            this.in = (in instanceof BufferedReader ? in : new BufferedReader(in));
+            this.chars = null;
+        }
+
+        public DeclarationReader(CharSequence chars)
+        {
+            this.in = null;
+            this.chars = chars;
+        }
+
+        /**
+         * @return the next declaration, or null at the end of the input
+         */
+        public Declaration next() throws IOException
+        {
+            depth = 0;
+            content = inString = escape = inComment = false;
+            prev = 0;
+            int start = line;
+            if (chars != null) {
+                int begin = position;
+                while (position < chars.length()) {
+                    if (accept(chars.charAt(position++))) {
+                        return new Declaration(chars.subSequence(begin, position).toString(),
+                                start);
+                    }
+                }
+                // incomplete declaration at the end: let the parser report it
+                return (content ? new Declaration(chars.subSequence(begin, position).toString(),
+                            start) : null);
+            }
+            StringBuilder text = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0) {
+                text.append((char)c);
+                if (accept((char)c)) {
+                    return new Declaration(text.toString(), start);
+                }
+            }
+            return (content ? new Declaration(text.toString(), start) : null);
+        }
+
+        /**
+         * Advance the scanner by one character.
+         * @return true if the character ends a declaration
+         */
+        private boolean accept(char c)
+        {
+            boolean end = false;
+            if (c == '\n') {
+                line++;
+                inComment = false;
+            } else if (inComment) {
+                // skip to the end of the line
+            } else if (inString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '/' && prev == '/') {
+                inComment = true;
+            } else if (c == '"') {
+                inString = true;
+                content = true;
+            } else if (c == '{') {
+                depth++;
+                content = true;
+            } else if (c == '}') {
+                content = true;
+                end = (--depth <= 0);
+            } else if (c == ';' && depth == 0) {
+                end = true;
+            } else if (c != '/' && !Character.isWhitespace(c)) {
+                content = true;
+            }
+            prev = (inComment || inString ? 0 : c);
+            return end;
+        }
+    }
+
+    private final File spillDirectory;
+
+    public StreamingAnalyzer()
+    {
+        this(null);
+    }
+
+    /**
+     * @param spillDirectory directory for the file of deferred functions
+     *        (null for the default temporary directory)
+     */
+    public StreamingAnalyzer(File spillDirectory)
+    {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Analyze the program read from the given input.
+     * @param in Decaf source code (not closed)
+     * @param session receives all static analysis errors; analysis stops
+     *        as soon as the session's error limit is reached
+     * @throws IOException Thrown if the source cannot be read or the
+     *         deferred functions cannot be spilled
+     * @throws InvalidTokenException Thrown if the source cannot be lexed
+     * @throws InvalidSyntaxException Thrown if the source cannot be parsed
+     */
+    public void analyze(Reader in, AnalysisSession session)
+            throws IOException, InvalidTokenException, InvalidSyntaxException
+    {
+        analyze(new DeclarationReader(in), session);
+    }
+
+    /**
+     * Analyze the program in the given text, e.g. a {@link MappedSource}.
+     * Only one declaration at a time is copied out of the text.
+     * @param text Decaf source code
+     * @param session receives all static analysis errors; analysis stops
+     *        as soon as the session's error limit is reached
+     * @throws IOException Thrown if the deferred functions cannot be spilled
+     * @throws InvalidTokenException Thrown if the source cannot be lexed
+     * @throws InvalidSyntaxException Thrown if the source cannot be parsed
+     */
+    public void analyze(CharSequence text, AnalysisSession session)
+            throws IOException, InvalidTokenException, InvalidSyntaxException
+    {
+        analyze(new DeclarationReader(text), session);
+    }
+
+    private void analyze(DeclarationReader reader, AnalysisSession session)
+            throws IOException, InvalidTokenException, InvalidSyntaxException
+    {
+        File spill = File.createTempFile("decaf-deferred", ".bin", spillDirectory);
+        try {
+            new Run(session, spill).analyze(reader);
+        } catch (AnalysisSession.ErrorLimitException ex) {
+            // the session holds the errors found up to the limit
+        } finally {
+            spill.delete();
+        }
+    }
+
+    /**
+     * State of a single analysis.
+     */
+    private static class Run
+    {
+        final AnalysisSession session;
+        final File spill;
+        final BuildSymbolTables declarations;
+        final SymbolTable global;
+        final TypeCheck root;
+        boolean sawMain = false;
+        int deferred = 0;
+
+        Run(AnalysisSession session, File spill)
+        {
+            this.session = session;
+            this.spill = spill;
+            declarations = new BuildSymbolTables(session);
+            global = declarations.initializeScope();
+            root = new BottomUpTypeCheck(session);
+        }
+
+        void analyze(DeclarationReader reader)
+                throws IOException, InvalidTokenException, InvalidSyntaxException
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(spill)));
+            try {
+                Declaration d;
+                while ((d = reader.next()) != null) {
+                    ASTProgram program = parse(d);
+                    declare(program);
+                    for (ASTFunction f : program.functions) {
+                        if (!check(f, false)) {
+                            writeDeclaration(out, d);
+                            deferred++;
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            // every global is known now; check the deferred functions
+            DataInputStream deferredIn = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(spill)));
+            try {
+                for (int i = 0; i < deferred; i++) {
+                    ASTProgram program = parse(readDeclaration(deferredIn));
+                    for (ASTFunction f : program.functions) {
+                        check(f, true);
+                    }
+                }
+            } finally {
+                deferredIn.close();
+            }
+
+            if (!sawMain) {
+                session.report(Diagnostic.Code.MISSING_MAIN, null);
+            }
+        }
+
+        /**
+         * Enter the declared globals and function signatures into the
+         * global scope and the function index.
+         */
+        void declare(ASTProgram program)
+        {
+            for (ASTVariable v : program.variables) {
+                v.traverse(new BuildParentLinks());
+                declarations.insertVariableSymbol(v);
+            }
+            for (ASTFunction f : program.functions) {
+                declarations.insertFunctionSymbol(f);
+                if (!root.funcIndex.containsKey(f.name)) {
+                    try {
+                        Symbol s = global.lookup(f.name);
+                        if (s.location == Symbol.MemLoc.STATIC_FUNC) {
+                            root.funcIndex.put(f.name, s);
+                        }
+                    } catch (InvalidProgramException ex) {
+                        // not inserted; already reported
+                    }
+                }
+                if (f.name.equals("main")) {
+                    sawMain = true;
+                    root.checkForMain(Collections.singletonList(f));
+                }
+            }
+        }
+
+        /**
+         * Build scopes for, resolve and type check a function. All of this
+         * is done in a scratch session, whose errors (and metrics) are only
+         * passed on once the function is checked, so a deferred function
+         * does not report its scope errors twice; dropping the scratch
+         * session also drops the function's node annotations.
+         * @param force check the function even if it uses undeclared names
+         * @return false if the function was not checked because it uses a
+         *         name not declared yet
+         */
+        boolean check(ASTFunction f, boolean force)
+        {
+            AnalysisSession scratch = session.fork();
+            scratch.setErrorLimit(Integer.MAX_VALUE);
+            if (!prepare(f, scratch) && !force) {
+                return false;
+            }
+            f.traverse(root.forFunction(scratch));
+            if (session.getMetrics() != null) {
+                session.getMetrics().merge(scratch.getMetrics());
+            }
+            for (Diagnostic d : scratch.getDiagnostics()) {
+                session.report(d);
+            }
+            return true;
+        }
+
+        /**
+         * Link, build scopes for and resolve the names of a function.
+         * @return true if every name it uses is declared by now
+         */
+        boolean prepare(ASTFunction f, AnalysisSession scratch)
+        {
+            f.traverse(new BuildParentLinks());
+            new BuildSymbolTables(scratch).buildFunctionScopes(global, f);
+            f.traverse(new ResolveSymbols(scratch));
+            final NodeTable table = scratch.getNodeTable();
+            final boolean[] resolved = { true };
+            f.traverse(new DefaultASTVisitor() {
+                public void preVisit(ASTLocation node) {
+                    resolved[0] &= AnnotationKey.SYMBOL.isSet(table, node);
+                }
+                public void preVisit(ASTFunctionCall node) {
+                    resolved[0] &= AnnotationKey.SYMBOL.isSet(table, node);
+                }
+                public void preVisit(ASTVoidFunctionCall node) {
+                    resolved[0] &= AnnotationKey.SYMBOL.isSet(table, node);
+                }
+            });
+            return resolved[0];
+        }
+    }
+
+    /**
+     * Lex and parse a single declaration, keeping the line numbers of the
+     * whole input.
+     */
+    static ASTProgram parse(Declaration d)
+            throws IOException, InvalidTokenException, InvalidSyntaxException
+    {
+        Queue<Token> tokens = (new MyDecafLexer()).lex(d.text);
+        if (d.line > 1) {
+            Map<SourceInfo, SourceInfo> shifted = new IdentityHashMap<SourceInfo, SourceInfo>();
+            for (Token t : tokens) {
+                SourceInfo s = shifted.get(t.source);
+                if (s == null) {
+                    s = new SourceInfo(t.source.filename, t.source.lineNumber + d.line - 1);
+                    shifted.put(t.source, s);
+                }
+                t.source = s;
+            }
+        }
+        return (new MyDecafParser()).parse(tokens);
+    }
+
+    private static void writeDeclaration(DataOutputStream out, Declaration d)
+            throws IOException
+    {
+        byte[] bytes = d.text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(d.line);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Declaration readDeclaration(DataInputStream in)
+            throws IOException
+    {
+        int line = in.readInt();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new Declaration(new String(bytes, StandardCharsets.UTF_8), line);
+    }
+}
@@ -1,6 +1,7 @@
 package edu.jmu.decaf;
 
 import java.io.*;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -41,6 +42,7 @@ public class TestAnalysis extends TestCase
                       (new MyDecafLexer()).lex(text));
             program.traverse(new BuildParentLinks());
             program.traverse(new BuildSymbolTables());
+            program.traverse(new ResolveSymbols());
             program.traverse(new TypeCheck());
             String errors = StaticAnalysis.getErrorString();
             if (errors.length() > 0) {
@@ -70,6 +72,7 @@ public class TestAnalysis extends TestCase
                       (new MyDecafLexer()).lex(text));
             program.traverse(new BuildParentLinks());
             program.traverse(new BuildSymbolTables());
+            program.traverse(new ResolveSymbols());
             program.traverse(new TypeCheck());
             String errors = StaticAnalysis.getErrorString();
             if (errors.length() > 0) {
@@ -98,6 +101,41 @@ public class TestAnalysis extends TestCase
         assertNotNull(parseValidProgram(text));
     }
 
+    /**
+     * Run a check on its own thread and fail unless it completes in time.
+     * The thread gets a large stack because traversal recurses once per
+     * level of expression nesting.
+     * @param millis time limit in milliseconds
+     * @param check test code to run
+     */
+    protected static void assertFinishesWithin(long millis, Runnable check)
+    {
+        final Throwable[] failure = new Throwable[1];
+        final Runnable body = check;
+        Thread worker = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    body.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "deep-check", 256L * 1024 * 1024);
+        worker.setDaemon(true);
+        worker.start();
+        try {
+            worker.join(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        assertFalse("check did not finish within " + millis + "ms", worker.isAlive());
+        if (failure[0] instanceof Error) {
+            throw (Error)failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+
     public void testEmptyMain()
     {
         ASTProgram program = parseValidProgram("def int main() { return 0; }");
@@ -130,7 +168,644 @@ public class TestAnalysis extends TestCase
     public void testCorrectContinue()         { assertValid(  "def int main() { int i; i = 3; while(i < 10){continue;} return 0; }"); }
     
     public void testA()         { assertValid("def int main() { bool b; int i; b = true; if (b) { i = 6; } }"); }
-    public void testB()         { assertValid("def int main() { if (3 < 4) { return true;} }"); }
+    public void testB()         { assertInvalid("def int main() { if (3 < 4) { return true;} }"); }
+    public void testNestedBreak()          { assertValid(  "def int main() { int i; i = 0; while (i < 10) { if (i > 5) { break; } i = i + 1; } return i; }"); }
+    public void testNestedContinueOutsideLoop() { assertInvalid("def int main() { if (true) { continue; } return 0; }"); }
+    public void testEmptyReturnInIntFunction() { assertInvalid("def int main() { return; }"); }
     public void testMismatchedParameters2() { assertInvalid("int a; def int main() { a = foo(true, true); return 0; } " + 
             					"def int foo(int c, bool b) { return 3; } "); }
+    public void testForwardCall()          { assertValid(  "def int main() { foo(1, true); return 0; } " +
+                                                       "def void foo(int i, bool b) { return ; } "); }
+    public void testWrongArgumentCount()   { assertInvalid("def int main() { foo(1); return 0; } " +
+                                                       "def void foo(int i, bool b) { return ; } "); }
+
+    public void testDeepExpressionLinearTime()
+    {
+        final StringBuilder expr = new StringBuilder("1");
+        for (int i = 0; i < 10000; i++) {
+            expr.append(" + 1");
+        }
+        assertFinishesWithin(10000, new Runnable() {
+            public void run() {
+                assertValid("def int main() { int i; i = " + expr + "; return 0; }");
+            }
+        });
+    }
+
+    public void testSessionsAreIndependent() throws Exception
+    {
+        StaticAnalysis.resetErrors();
+        final String[] texts = {
+            "def int main() { int i; i = 3+4; return 0; }",
+            "def int main() { int i; i = true+4; return 0; }" };
+        final AnalysisSession[] sessions = { new AnalysisSession(), new AnalysisSession() };
+        Thread[] workers = new Thread[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            final int n = i;
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int k = 0; k < 100; k++) {
+                            sessions[n].reset();
+                            ASTProgram program = (new MyDecafParser()).parse(
+                                      (new MyDecafLexer()).lex(texts[n]));
+                            program.traverse(new BuildParentLinks());
+                            program.traverse(new BuildSymbolTables(sessions[n]));
+                            program.traverse(new TypeCheck(sessions[n]));
+                        }
+                    } catch (Exception ex) {
+                        sessions[n].addError(ex.toString());
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        assertFalse(sessions[0].hasErrors());
+        assertTrue(sessions[1].hasErrors());
+        assertEquals("", StaticAnalysis.getErrorString());
+    }
+
+    public void testBatchAnalyzerAggregatesFiles() throws Exception
+    {
+        File dir = File.createTempFile("decaf-batch", "");
+        dir.delete();
+        dir.mkdir();
+        String[] sources = {
+            "def int main() { return 0; }",
+            "int a; int a; def int main() { int i; i = true; return 0; }",
+            "def int main( { }" };
+        try {
+            for (int i = 0; i < sources.length; i++) {
+                Writer out = new OutputStreamWriter(
+                        new FileOutputStream(new File(dir, "f" + i + ".decaf")), "UTF-8");
+                out.write(sources[i]);
+                out.close();
+            }
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            int status = BatchAnalyzer.run(new String[] { "-j", "2", dir.getPath() },
+                    new PrintStream(report, true, "UTF-8"));
+            assertEquals(1, status);
+            String[] lines = report.toString("UTF-8").split("\n");
+            assertTrue(lines[0].endsWith("f0.decaf: OK"));
+            assertTrue(lines[1].endsWith("f1.decaf: 2 error(s)"));
+            assertTrue(lines[4].contains("f2.decaf: Invalid syntax"));
+            assertEquals("3 file(s), 1 valid, 2 invalid, 3 error(s)", lines[lines.length - 1]);
+
+            status = BatchAnalyzer.run(new String[] { new File(dir, "f0.decaf").getPath() },
+                    new PrintStream(new ByteArrayOutputStream()));
+            assertEquals(0, status);
+            assertEquals(2, BatchAnalyzer.run(new String[0],
+                    new PrintStream(new ByteArrayOutputStream())));
+            String[][] bad = {
+                { "-j", "x", dir.getPath() }, { "-j", "-1", dir.getPath() },
+                { "--cache-mb", "-5", dir.getPath() }, { "--max-errors", "0", dir.getPath() } };
+            for (String[] b : bad) {
+                assertEquals(2, BatchAnalyzer.run(b, new PrintStream(new ByteArrayOutputStream())));
+            }
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testParallelTypeCheckMatchesSequential() throws Exception
+    {
+        StringBuilder text = new StringBuilder("int g; ");
+        for (int i = 0; i < 50; i++) {
+            text.append("def int f" + i + "(int x) { g = x; return f" + ((i + 1) % 50) + "(x); } ");
+            text.append("def void v" + i + "() { g = true; f" + i + "(false); } ");
+        }
+        text.append("def int main() { return f0(1); }");
+
+        AnalysisSession sequential = new AnalysisSession();
+        new AnalysisPipeline().analyze(text.toString(), sequential);
+
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        AnalysisPipeline pipeline = new AnalysisPipeline();
+        pipeline.setParallelTypeCheck(new ParallelTypeCheck(pool));
+        AnalysisSession parallel = new AnalysisSession();
+        try {
+            pipeline.analyze(text.toString(), parallel);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(sequential.hasErrors());
+        assertEquals(sequential.getErrors(), parallel.getErrors());
+    }
+
+    public void testIncrementalUpdateRechecksOnlyChangedFunctions() throws Exception
+    {
+        String before = "int g; def int main() { g = 1; return f(g); }\n" +
+                        "def int f(int x) { return x; }\n" +
+                        "def void h() { g = 2; }\n";
+        String after  = "int g; def int main() { g = 1; return f(g); }\n" +
+                        "def int f(int x) { return x; }\n" +
+                        "def void h() { g = true; }\n";
+        IncrementalAnalysis analysis = new IncrementalAnalysis();
+        IncrementalAnalysis.Result first = analysis.analyze(
+            (new MyDecafParser()).parse((new MyDecafLexer()).lex(before)));
+        assertTrue(first.getErrors().isEmpty());
+
+        IncrementalAnalysis.Result second = analysis.update(first,
+            (new MyDecafParser()).parse((new MyDecafLexer()).lex(after)));
+        assertEquals(java.util.Collections.singleton("h"), second.reanalyzed);
+
+        AnalysisSession full = new AnalysisSession();
+        new AnalysisPipeline().analyze(after, full);
+        assertEquals(full.getErrors(), second.getErrors());
+    }
+
+    public void testIncrementalUpdateMovesShiftedFunctions() throws Exception
+    {
+        String before = "int g; def int main() { return f(1); }\n" +
+                        "def int f(int x) {\n  g = true;\n  return x;\n}\n";
+        String after  = "int g; def int main() {\n  int i;\n  i = 2;\n  return f(i);\n}\n" +
+                        "def int f(int x) {\n  g = true;\n  return x;\n}\n";
+        IncrementalAnalysis analysis = new IncrementalAnalysis();
+        IncrementalAnalysis.Result first = analysis.analyze(
+            (new MyDecafParser()).parse((new MyDecafLexer()).lex(before)));
+        List<String> firstErrors = first.getErrors();
+        assertEquals(1, firstErrors.size());
+
+        ASTProgram edited = (new MyDecafParser()).parse((new MyDecafLexer()).lex(after));
+        IncrementalAnalysis.Result second = analysis.update(first, edited);
+        assertEquals(Collections.singleton("main"), second.reanalyzed);
+        ASTFunction f = second.program.functions.get(1);
+        assertSame(first.program.functions.get(1), f);
+        assertSame(second.program, f.getParent());
+        assertEquals(6, f.getSourceInfo().lineNumber);
+
+        AnalysisSession full = new AnalysisSession();
+        new AnalysisPipeline().analyze(after, full);
+        assertEquals(full.getErrors(), second.getErrors());
+        assertEquals(firstErrors, first.getErrors());
+    }
+
+    public void testAnalysisCacheRoundTrip() throws Exception
+    {
+        File dir = File.createTempFile("decaf-cache", "");
+        dir.delete();
+        try {
+            AnalysisCache cache = new AnalysisCache(dir, 1 << 20);
+            String text = "int a[10]; def int main() { int i; i = true+4; return f(i, true); } " +
+                          "def int f(int x, bool b) { return x; }";
+            String key = AnalysisCache.key(text);
+            assertNull(cache.get(key));
+
+            AnalysisSession session = new AnalysisSession();
+            ASTProgram program = new AnalysisPipeline().analyze(text, session);
+            cache.put(key, session.getErrors(), program);
+            AnalysisCache.Entry entry = cache.get(key);
+            assertNotNull(entry);
+            assertEquals(session.getErrors(), entry.errors);
+            assertEquals(3, entry.globals.size());
+            assertEquals(10, entry.globals.get(0).length);
+            assertEquals(Symbol.MemLoc.STATIC_FUNC, entry.globals.get(2).location);
+            assertEquals(2, entry.globals.get(2).ptypes.size());
+
+            // a store over the bound evicts old entries and stale temporary files
+            File orphan = new File(dir, "orphan.tmp");
+            new FileOutputStream(orphan).close();
+            orphan.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L);
+            File entryFile = new File(dir, key + ".bin");
+            entryFile.setLastModified(System.currentTimeMillis() - 60 * 1000L);
+            AnalysisCache small = new AnalysisCache(dir, entryFile.length());
+            small.put(AnalysisCache.key("other"), entry);
+            assertFalse(orphan.exists());
+            assertFalse(entryFile.exists());
+            assertNotNull(small.get(AnalysisCache.key("other")));
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    public void testFlatSymbolTablesMatchChainedTables() throws Exception
+    {
+        String[] texts = {
+            "int a; int a; def int main() { return 0; }",
+            "int x; def int main() { bool x; x = true; if (x) { int x; x = 3; } return 0; }",
+            "int x; def int main() { bool x; x = 1; if (x) { int y; y = x; } return y; }",
+            "def int main() { int p; p = f(1, 2); return p; } def int f(int p, int p) { return p; }" };
+        AnalysisPipeline flat = new AnalysisPipeline();
+        flat.setFlatSymbolTables(true);
+        for (String text : texts) {
+            AnalysisSession expected = new AnalysisSession();
+            new AnalysisPipeline().analyze(text, expected);
+            AnalysisSession actual = new AnalysisSession();
+            ASTProgram program = flat.analyze(text, actual);
+            assertEquals(expected.getErrors(), actual.getErrors());
+            SymbolTable table = AnnotationKey.SYMBOL_TABLE.get(program);
+            assertEquals(Symbol.MemLoc.STATIC_FUNC, table.lookup("main").location);
+            ASTFunction main = program.functions.get(0);
+            FlatSymbolTable.Scope scope = AnnotationKey.FLAT_SCOPE.get(main);
+            assertEquals(Symbol.MemLoc.STATIC_FUNC, scope.lookup("main").location);
+            assertSame(scope.asSymbolTable(), AnnotationKey.SYMBOL_TABLE.get(main));
+
+            // a walk over "symbolTable" annotations resolves locals and
+            // shadowed names as with chained tables
+            List<String> chained = legacyLookups(new AnalysisPipeline().analyze(text,
+                        new AnalysisSession()));
+            assertEquals(chained, legacyLookups(program));
+        }
+    }
+
+    /**
+     * Resolve every location the way code written against the framework
+     * does: from the nearest "symbolTable" annotation up the parent links.
+     */
+    private static List<String> legacyLookups(ASTProgram program)
+    {
+        final List<String> found = new ArrayList<String>();
+        program.traverse(new DefaultASTVisitor() {
+            public void preVisit(ASTLocation node) {
+                ASTNode n = node;
+                while (!n.annotations.containsKey("symbolTable")) {
+                    n = n.getParent();
+                }
+                try {
+                    Symbol s = ((SymbolTable)n.annotations.get("symbolTable")).lookup(node.name);
+                    found.add(node.name + " " + s.type + " " + s.location);
+                } catch (InvalidProgramException ex) {
+                    found.add(node.name + " not found");
+                }
+            }
+        });
+        return found;
+    }
+
+    public void testExpressionAnnotationsKeptInNodeTable() throws Exception
+    {
+        String text = "int g; def int main() { g = 1 + 2; return g; }";
+        AnalysisSession session = new AnalysisSession();
+        ASTProgram program = new AnalysisPipeline().analyze(text, session);
+        ASTAssignment assign = (ASTAssignment)program.functions.get(0).body.statements.get(0);
+        NodeTable table = session.getNodeTable();
+        assertEquals(ASTNode.DataType.INT, AnnotationKey.TYPE.get(table, assign.value));
+        assertEquals("g", AnnotationKey.SYMBOL.get(table, assign.location).name);
+        assertFalse(AnnotationKey.TYPE.isSet(assign.value));
+        assertFalse(AnnotationKey.SYMBOL.isSet(assign.location));
+        assertTrue(AnnotationKey.SYMBOL_TABLE.isSet(program));
+
+        // passes without a session keep annotating the nodes
+        program = parseValidProgram(text);
+        assign = (ASTAssignment)program.functions.get(0).body.statements.get(0);
+        assertEquals(ASTNode.DataType.INT, AnnotationKey.TYPE.get(assign.value));
+        assertNull(AnalysisSession.global().getNodeTable());
+
+        session.reset();
+        assertFalse(AnnotationKey.TYPE.isSet(table, assign.value));
+    }
+
+    public void testErrorLimitStopsEarly() throws Exception
+    {
+        StringBuilder text = new StringBuilder("def int main() { int i; ");
+        for (int k = 0; k < 100; k++) {
+            text.append("i = true; ");
+        }
+        text.append("return 0; }");
+
+        AnalysisSession all = new AnalysisSession();
+        new AnalysisPipeline().analyze(text.toString(), all);
+        assertEquals(100, all.getErrorCount());
+
+        AnalysisSession capped = new AnalysisSession();
+        capped.setErrorLimit(5);
+        new AnalysisPipeline().analyze(text.toString(), capped);
+        assertEquals(all.getErrors().subList(0, 5), capped.getErrors());
+        assertEquals(Diagnostic.Code.ASSIGNMENT_MISMATCH, capped.getDiagnostics().get(0).code);
+    }
+
+    public void testFirstErrorModeStopsBeforeTypeCheck() throws Exception
+    {
+        String text = "int a; int a; def int main() { int i; i = true; return 0; }";
+        AnalysisSession all = new AnalysisSession();
+        new AnalysisPipeline().analyze(text, all);
+        assertEquals(2, all.getErrorCount());
+
+        AnalysisPipeline pipeline = new AnalysisPipeline();
+        pipeline.setMode(AnalysisMode.FIRST_ERROR);
+        AnalysisSession first = new AnalysisSession();
+        pipeline.analyze(text, first);
+        assertEquals(all.getErrors().subList(0, 1), first.getErrors());
+        assertEquals(Integer.MAX_VALUE, first.getErrorLimit());
+
+        // the mode's limit does not outlive the analysis, even globally
+        try {
+            pipeline.analyze(text, AnalysisSession.global());
+            assertEquals(Integer.MAX_VALUE, AnalysisSession.global().getErrorLimit());
+            assertInvalid(text);
+            assertEquals(2, AnalysisSession.global().getErrors().size());
+        } finally {
+            StaticAnalysis.resetErrors();
+        }
+    }
+
+    public void testFusedAnalysisMatchesSeparatePasses() throws Exception
+    {
+        String[] texts = {
+            "int a; int a; def int main() { int i; i = true; return f(i); } def int f(int x) { return x; }",
+            "int x; def int main() { bool x; x = 1; if (x) { int y; y = g(x); } return y; } " +
+                "def int g(bool b) { break; return 0; } def int g() { return 1; }",
+            "int f; def int main() { f = f(1); h(); return 0; } def int f(int x) { return x; }" };
+        AnalysisPipeline fused = new AnalysisPipeline();
+        fused.setFused(true);
+        for (String text : texts) {
+            AnalysisSession expected = new AnalysisSession();
+            new AnalysisPipeline().analyze(text, expected);
+            AnalysisSession actual = new AnalysisSession();
+            ASTProgram program = fused.analyze(text, actual);
+            List<String> e = expected.getErrors();
+            List<String> a = actual.getErrors();
+            Collections.sort(e);
+            Collections.sort(a);
+            assertEquals(e, a);
+            SymbolTable table = AnnotationKey.SYMBOL_TABLE.get(program);
+            assertEquals(Symbol.MemLoc.STATIC_FUNC, table.lookup("main").location);
+        }
+    }
+
+    public void testMetricsReporter() throws Exception
+    {
+        final List<AnalysisMetrics> reported = new ArrayList<AnalysisMetrics>();
+        AnalysisPipeline pipeline = new AnalysisPipeline();
+        pipeline.setMetricsReporter(new AnalysisMetrics.Reporter() {
+            public void report(AnalysisMetrics metrics) {
+                reported.add(metrics);
+            }
+        });
+        AnalysisSession session = new AnalysisSession();
+        pipeline.analyze("int g; def int main() { int i; i = g; if (true) { i = true; } return i; }",
+                session);
+
+        assertEquals(1, reported.size());
+        AnalysisMetrics metrics = reported.get(0);
+        assertSame(session.getMetrics(), metrics);
+        assertEquals(1, metrics.getDiagnostics());
+        assertEquals(4, metrics.getScopes());
+        assertTrue(metrics.getNodes() > 10);
+        // one per name resolved, plus the check of the function name
+        assertEquals(5, metrics.getLookups());
+        assertTrue(metrics.getPassNanos().containsKey("typeCheck"));
+        assertTrue(metrics.toJson().startsWith("{\"passNanos\":{\"lex\":"));
+
+        assertNull(new AnalysisSession().getMetrics());
+    }
+
+    public void testGlobalSessionCountFollowsStaticErrors() throws Exception
+    {
+        AnalysisSession global = AnalysisSession.global();
+        StaticAnalysis.resetErrors();
+        assertEquals(0, global.getErrorCount());
+        assertInvalid("def int main() { int i; i = true; return 0; }");
+        assertEquals(1, global.getErrorCount());
+        StaticAnalysis.resetErrors();
+        assertEquals(0, global.getErrorCount());
+        assertFalse(global.hasErrors());
+
+        global.setErrorLimit(1);
+        try {
+            StaticAnalysis.addError("first");
+            StaticAnalysis.resetErrors();
+            global.addError("second");
+            fail("limit not reached");
+        } catch (AnalysisSession.ErrorLimitException ex) {
+            assertEquals(1, global.getErrorCount());
+        } finally {
+            global.setErrorLimit(Integer.MAX_VALUE);
+            StaticAnalysis.resetErrors();
+        }
+    }
+
+    public void testStreamingAnalysisMatchesPipeline() throws Exception
+    {
+        String[] texts = {
+            "int g;\ndef int main() {\n  g = f(1, true);\n  return h;\n}\n" +
+                "def int f(int x, bool b) {\n  // forward use of h; }\n  h = x + 1;\n  return b;\n}\n" +
+                "int h;\ndef void v() { g = true; }\n",
+            "int a[0];\nint a;\ndef void main(int p) {\n  if (p) { break; }\n}\n",
+            // deferred by the forward call; its duplicate local is reported once
+            "def int main() {\n  int d;\n  int d;\n  return f();\n}\ndef int f() { return 1; }\n" };
+        for (String text : texts) {
+            AnalysisSession expected = new AnalysisSession();
+            new AnalysisPipeline().analyze(text, expected);
+            AnalysisSession actual = new AnalysisSession();
+            new StreamingAnalyzer().analyze(new StringReader(text), actual);
+            List<String> e = expected.getErrors();
+            List<String> a = actual.getErrors();
+            Collections.sort(e);
+            Collections.sort(a);
+            assertFalse(e.isEmpty());
+            assertEquals(e, a);
+        }
+    }
+
+    public void testStreamingFromMappedSource() throws Exception
+    {
+        String text = "int g;\ndef int main() {\n  g = f(true);\n  return g;\n}\n" +
+                      "// \"main\" calls f; }\ndef int f(int x) {\n  return x;\n}\n" +
+                      "def void s() { print(\"gr\u00fc\u00dfe\"); }\n";
+        File file = File.createTempFile("decaf-mapped", ".decaf");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write(text);
+            out.close();
+            MappedSource source = MappedSource.map(file);
+            assertEquals(text, source.toString());
+            assertEquals(text.substring(7, 20), source.subSequence(7, 20).toString());
+
+            AnalysisSession expected = new AnalysisSession();
+            new StreamingAnalyzer().analyze(new StringReader(text), expected);
+            AnalysisSession actual = new AnalysisSession();
+            new StreamingAnalyzer().analyze(source, actual);
+            assertTrue(expected.hasErrors());
+            assertEquals(expected.getErrors(), actual.getErrors());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testAnalysisServerAnswersPipelinedRequests() throws Exception
+    {
+        String[] sources = {
+            "def int main() { return 0; }",
+            "def int main() { int i; i = true; return 0; }",
+            "def int main( { }" };
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        for (int i = 0; i < sources.length; i++) {
+            byte[] bytes = sources[i].getBytes("UTF-8");
+            requests.write(("r" + i + " " + bytes.length + "\n").getBytes("US-ASCII"));
+            requests.write(bytes);
+        }
+        AnalysisServer server = new AnalysisServer(2);
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        try {
+            server.serve(new ByteArrayInputStream(requests.toByteArray()), responses);
+        } finally {
+            server.shutdown();
+        }
+
+        Map<String, String> status = new HashMap<String, String>();
+        BufferedReader in = new BufferedReader(new StringReader(responses.toString("UTF-8")));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] parts = line.split(" ", 3);
+            status.put(parts[0], parts[1]);
+            if (parts[1].equals("ERRORS")) {
+                for (int k = Integer.parseInt(parts[2]); k > 0; k--) {
+                    in.readLine();
+                }
+            }
+        }
+        assertEquals("OK", status.get("r0"));
+        assertEquals("ERRORS", status.get("r1"));
+        assertEquals("FAILED", status.get("r2"));
+    }
+
+    public void testAnalysisServerSurvivesBadRequests() throws Exception
+    {
+        StringBuilder deep = new StringBuilder("def int main() { return ");
+        for (int i = 0; i < 100000; i++) {
+            deep.append('(');
+        }
+        byte[] bytes = deep.toString().getBytes("UTF-8");
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        requests.write(("deep " + bytes.length + "\n").getBytes("US-ASCII"));
+        requests.write(bytes);
+        requests.write("bad -5\n".getBytes("US-ASCII"));
+        AnalysisServer server = new AnalysisServer(1);
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        try {
+            server.serve(new ByteArrayInputStream(requests.toByteArray()), responses);
+            fail("negative length accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("-5"));
+        } finally {
+            server.shutdown();
+        }
+        // the request before the bad frame is still answered
+        assertTrue(responses.toString("UTF-8").startsWith("deep FAILED "));
+
+        server = new AnalysisServer(1);
+        String huge = "huge " + (AnalysisServer.MAX_REQUEST_BYTES + 1) + "\n";
+        try {
+            server.serve(new ByteArrayInputStream(huge.getBytes("US-ASCII")),
+                    new ByteArrayOutputStream());
+            fail("oversized request accepted");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("malformed request length"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testResetPassesAnalyzeManyPrograms() throws Exception
+    {
+        String[] texts = {
+            "int a; int a; def int main() { return f(1); } def int f(int x) { return x; }",
+            "def int f(bool b) { return 1; } def void main() { f(2); }",
+            "def int main() { int i; i = true; return 0; }" };
+        AnalysisSession first = new AnalysisSession();
+        BuildSymbolTables symbols = new BuildSymbolTables(first);
+        ResolveSymbols resolve = new ResolveSymbols(first);
+        TypeCheck check = new TypeCheck(first);
+        for (int round = 0; round < 2; round++) {
+            for (String text : texts) {
+                AnalysisSession expected = new AnalysisSession();
+                new AnalysisPipeline().analyze(text, expected);
+
+                AnalysisSession actual = new AnalysisSession();
+                symbols.reset(actual, round == 1);
+                resolve.reset(actual);
+                check.reset(actual);
+                ASTProgram program = (new MyDecafParser()).parse((new MyDecafLexer()).lex(text));
+                program.traverse(new BuildParentLinks());
+                program.traverse(symbols);
+                program.traverse(resolve);
+                program.traverse(check);
+                assertEquals(expected.getErrors(), actual.getErrors());
+            }
+        }
+        assertFalse(first.hasErrors());
+    }
+
+    public void testMissingReturnOnSomePath() throws Exception
+    {
+        String[] missing = {
+            "def int main() { bool b; int i; b = true; if (b) { i = 6; } }",
+            "def int main() { int i; i = 0; if (i < 1) { return 1; } }",
+            "def int main() { int i; i = 0; while (i < 1) { return 1; } }" };
+        String[] complete = {
+            "def int main() { int i; i = 0; if (i < 1) { return 1; } else { return 2; } }",
+            "def int main() { return 0; }",
+            "def void f() { } def int main() { f(); return 0; }" };
+        for (int i = 0; i < missing.length; i++) {
+            assertFalse(returnCheck(missing[i], false).hasErrors());
+            assertEquals(1, returnCheck(missing[i], true).getErrorCount());
+            assertFalse(returnCheck(complete[i], true).hasErrors());
+        }
+    }
+
+    private static AnalysisSession returnCheck(String text, boolean requireReturns) throws Exception
+    {
+        AnalysisSession session = new AnalysisSession();
+        ASTProgram program = (new MyDecafParser()).parse((new MyDecafLexer()).lex(text));
+        program.traverse(new BuildParentLinks());
+        program.traverse(new BuildSymbolTables(session));
+        TypeCheck check = new TypeCheck(session);
+        check.setRequireReturns(requireReturns);
+        program.traverse(check);
+        return session;
+    }
+
+    public void testConstantFolding() throws Exception
+    {
+        String text = "int a[10]; def int main() { int i; i = 2 * 3 + 1; a[5 + 5] = 1; " +
+                      "a[9] = -(2 - 3); while (1 > 2) { i = 0; } if (!false) { i = 1; } " +
+                      "if (i < 3) { i = 2; } return a[0 - 1]; }";
+        AnalysisPipeline pipeline = new AnalysisPipeline();
+        pipeline.setConstantFolding(true);
+        AnalysisSession session = new AnalysisSession();
+        ASTProgram program = pipeline.analyze(text, session);
+
+        List<Diagnostic> errors = session.getDiagnostics();
+        assertEquals(2, errors.size());
+        assertEquals(Diagnostic.Code.INDEX_OUT_OF_RANGE, errors.get(0).code);
+        assertEquals(10, errors.get(0).getArguments()[0]);
+        assertEquals(-1, errors.get(1).getArguments()[0]);
+
+        List<Diagnostic> warnings = session.getWarnings();
+        assertEquals(2, warnings.size());
+        assertEquals(Diagnostic.Code.CONSTANT_FALSE_LOOP, warnings.get(0).code);
+        assertEquals(Diagnostic.Code.CONSTANT_CONDITION, warnings.get(1).code);
+
+        ASTAssignment first = (ASTAssignment)program.functions.get(0).body.statements.get(0);
+        assertEquals(7, ConstantFolding.getConstant(first.value, session));
+
+        AnalysisSession unfolded = new AnalysisSession();
+        new AnalysisPipeline().analyze(text, unfolded);
+        assertFalse(unfolded.hasErrors());
+    }
+
+    public void testConstantFoldingSkipsNonArrays() throws Exception
+    {
+        String text = "int x; int a[0]; def int main() { x[5] = 1; a[3] = 1; return x; }";
+        AnalysisPipeline pipeline = new AnalysisPipeline();
+        AnalysisSession unfolded = new AnalysisSession();
+        pipeline.analyze(text, unfolded);
+        pipeline.setConstantFolding(true);
+        for (int i = 0; i < 2; i++) {
+            AnalysisSession folded = new AnalysisSession();
+            pipeline.analyze(text, folded);
+            assertEquals(unfolded.getErrors(), folded.getErrors());
+        }
+    }
 }
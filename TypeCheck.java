@@ -2,6 +2,10 @@ package edu.jmu.decaf;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Deque;
+import java.util.ArrayDeque;
 
 /**
  * Static analysis; perform type checking.
@@ -14,6 +18,102 @@ public class TypeCheck extends StaticAnalysis
 {
 	List<ASTFunction> funcs = new ArrayList<ASTFunction>();
 	List<ASTVariable> vars = new ArrayList<ASTVariable>();
+	Map<String, Symbol> funcIndex = new HashMap<String, Symbol>();
+
+	/**
+	 * Receives the errors found by this pass.
+	 */
+	protected AnalysisSession session;
+
+	/**
+	 * What is known about the function being checked: the function, its
+	 * return type and how many loops enclose the current statement.
+	 */
+	protected static class Context
+	{
+		final ASTFunction function;
+		final ASTNode.DataType returnType;
+		int loopDepth = 0;
+
+		Context(ASTFunction function)
+		{
+			this.function = function;
+			this.returnType = function.returnType;
+		}
+	}
+
+	/**
+	 * Stack of contexts, pushed and popped as functions are entered and
+	 * left; the innermost is on top.
+	 */
+	protected Deque<Context> contexts = new ArrayDeque<Context>();
+
+	/**
+	 * Whether a non-void function must return a value on every path.
+	 */
+	protected boolean requireReturns = false;
+
+	public TypeCheck()
+	{
+		this(AnalysisSession.global());
+	}
+
+	public TypeCheck(AnalysisSession session)
+	{
+		this.session = session;
+	}
+
+	/**
+	 * Creates a checker for the body of one function of the program this
+	 * checker has already indexed in preVisit(ASTProgram). The new checker
+	 * shares the (read-only) function list and index, and reports into its
+	 * own session, so several function bodies can be checked concurrently.
+	 * @param session receives the errors found in the function
+	 * @return checker to traverse a single ASTFunction with
+	 */
+	public TypeCheck forFunction(AnalysisSession session)
+	{
+		TypeCheck tc = newInstance(session);
+		tc.funcs = funcs;
+		tc.vars = vars;
+		tc.funcIndex = funcIndex;
+		tc.requireReturns = requireReturns;
+		return tc;
+	}
+
+	/**
+	 * Report non-void functions that can reach the end of their body
+	 * without returning a value (off by default).
+	 */
+	public void setRequireReturns(boolean require)
+	{
+		requireReturns = require;
+	}
+
+	/**
+	 * Prepares this checker for another program: forgets the functions,
+	 * variables and signatures of the previous one (keeping the capacity of
+	 * their collections) and reports into the given session from now on.
+	 * Checkers created by {@link #forFunction} for the previous program must
+	 * be done before the reset, since they share these collections.
+	 * @param session receives the errors found in the next program
+	 */
+	public void reset(AnalysisSession session)
+	{
+		funcs.clear();
+		vars.clear();
+		funcIndex.clear();
+		contexts.clear();
+		this.session = session;
+	}
+
+	/**
+	 * Creates an unindexed checker of the same kind as this one.
+	 */
+	protected TypeCheck newInstance(AnalysisSession session)
+	{
+		return new TypeCheck(session);
+	}
 	
     /**
      * If operator && or ||, should compute boolean result return
@@ -66,12 +166,12 @@ public class TypeCheck extends StaticAnalysis
     			main = true;
     			if (f.returnType != ASTNode.DataType.INT)
     			{
-    				addError("Main function must return type int " + f.getSourceInfo().toString());
+    				session.report(Diagnostic.Code.MAIN_RETURN_TYPE, f, f);
     			}
     			
 				if (!f.parameters.isEmpty())
 				{
-					addError("Main function cannot have parameters " + f.getSourceInfo().toString());
+					session.report(Diagnostic.Code.MAIN_PARAMETERS, f, f);
 				}
     		}
     	}    	 	
@@ -79,44 +179,85 @@ public class TypeCheck extends StaticAnalysis
     }
     
     /**
-     * 
+     * Checks the function-wide return rules: more than one return at the
+     * top level of the body, and (if {@link #setRequireReturns} is on) a
+     * non-void function that can end without returning a value. Each
+     * return statement is checked against the return type in its own
+     * postVisit.
      * @param node
      */
     public void checkReturnTypes(ASTFunction node)
     {
     	int i = 0;
-    	
-
-    		ASTBlock b = node.body;
-    		for(ASTStatement s : b.statements)
+    	for(ASTStatement s : node.body.statements)
+    	{
+    		if(s instanceof ASTReturn)
     		{
-    			if(s instanceof ASTReturn)
+    			i++;
+    			if(i > 1)
     			{
-    				i++;
-    				
-    				if(i > 1)
-    				{
-    					addError("Function illegally contains multiple return statements " + node.returnType.toString()
-    							);
-    				}
-    				ASTReturn r = (ASTReturn)s;
-    				if(node.returnType == ASTNode.DataType.VOID)
-    				{
-    					if(r.hasValue())
-    					{
-    						addError("Illegal return statement for void function");
-    					}
-    				}
-    				else if(getType(r.value) != node.returnType)
-    				{
-    					addError("Function must return type " + node.returnType.toString()
-    					+ " " + r.getSourceInfo().toString());
-    				}
+    				session.report(Diagnostic.Code.MULTIPLE_RETURNS, s, node.returnType);
     			}
     		}
-    	
+    	}
+
+    	if(requireReturns && node.returnType != ASTNode.DataType.VOID && getFlow(node).canFallOffEnd())
+    	{
+    		session.report(Diagnostic.Code.MISSING_RETURN, node, node.name, node);
+    	}
+    }
+
+    /**
+     * Returns the control-flow graph of a function, building it (once) if
+     * it has not been built yet.
+     * @param node is ASTFunction node
+     * @return control-flow graph of the function
+     */
+    public static ControlFlowGraph getFlow(ASTFunction node)
+    {
+    	ControlFlowGraph cfg = AnnotationKey.FLOW.get(node);
+    	if (cfg == null)
+    	{
+    		cfg = ControlFlowGraph.build(node);
+    		AnnotationKey.FLOW.set(node, cfg);
+    	}
+    	return cfg;
     }
     
+    /**
+     * Builds the function signature index from the program-level symbol
+     * table, so that every call site (including calls to functions declared
+     * further down) resolves in O(1). Only the first declaration of a
+     * duplicated name is indexed, matching {@link SymbolTable#lookup}.
+     * @param node is the ASTProgram node, annotated by BuildSymbolTables
+     */
+    protected void indexFunctions(ASTProgram node)
+    {
+    	SymbolTable table = AnnotationKey.SYMBOL_TABLE.get(node);
+    	if (table == null)
+    	{
+    		return;
+    	}
+    	for (ASTFunction f : node.functions)
+    	{
+    		if (funcIndex.containsKey(f.name))
+    		{
+    			continue;
+    		}
+    		try
+    		{
+    			Symbol s = table.lookup(f.name);
+    			if (s.location == Symbol.MemLoc.STATIC_FUNC)
+    			{
+    				funcIndex.put(f.name, s);
+    			}
+    		} catch (InvalidProgramException ex)
+    		{
+    			// not inserted; BuildSymbolTables already reported why
+    		}
+    	}
+    }
+
     /**
      * Retrieves symbol information for a given symbol name. Searches for
      * symbol tables up the parent tree if there is no table at the given
@@ -129,68 +270,139 @@ public class TypeCheck extends StaticAnalysis
     public static Symbol lookupSymbol(ASTNode node, String name)
             throws InvalidProgramException
     {
-        if (node.annotations.containsKey("symbolTable")) {
-            SymbolTable table = (SymbolTable)node.annotations.get("symbolTable");
-            return table.lookup(name);
-        } else if (node.getParent() != null) {
-            return lookupSymbol(node.getParent(), name);
-        } else {
-            throw new InvalidProgramException("Symbol not found: " + name);
+        return lookupSymbol(node, name, null);
+    }
+
+    /**
+     * Retrieves symbol information for a given symbol name, counting the
+     * lookup and every parent hop in the given metrics.
+     * @param metrics receives the counts (may be null)
+     * @throws InvalidProgramException Thrown if the symbol is not found
+     */
+    public static Symbol lookupSymbol(ASTNode node, String name, AnalysisMetrics metrics)
+            throws InvalidProgramException
+    {
+        if (metrics != null) {
+            metrics.countLookup();
+        }
+        SymbolTable table = AnnotationKey.SYMBOL_TABLE.get(node);
+        FlatSymbolTable.Scope scope = AnnotationKey.FLAT_SCOPE.get(node);
+        while (table == null && scope == null) {
+            node = node.getParent();
+            if (node == null) {
+                throw new InvalidProgramException("Symbol not found: " + name);
+            }
+            if (metrics != null) {
+                metrics.countLookupHop();
+            }
+            table = AnnotationKey.SYMBOL_TABLE.get(node);
+            scope = AnnotationKey.FLAT_SCOPE.get(node);
+        }
+        return (scope != null ? scope.lookup(name) : table.lookup(name));
+    }
+
+    /**
+     * Retrieves symbol information for a location or function call. Uses
+     * the binding left by {@link ResolveSymbols} if the node has one, and
+     * otherwise falls back to {@link #lookupSymbol}.
+     * @param node {@link ASTNode} that uses the symbol
+     * @param name Decaf symbol name used by the node
+     * @return Symbol information
+     * @throws InvalidProgramException Thrown if the symbol is not found
+     */
+    public static Symbol resolveSymbol(ASTNode node, String name)
+            throws InvalidProgramException
+    {
+        return resolveSymbol(node, name, AnalysisSession.global());
+    }
+
+    /**
+     * Like {@link #resolveSymbol(ASTNode, String)}, using the binding made
+     * for the given session. Only a fallback lookup is counted in its
+     * metrics; the binding was counted when it was made.
+     * @throws InvalidProgramException Thrown if the symbol is not found
+     */
+    public static Symbol resolveSymbol(ASTNode node, String name, AnalysisSession session)
+            throws InvalidProgramException
+    {
+        Symbol symbol = AnnotationKey.SYMBOL.get(session.getNodeTable(), node);
+        if (symbol != null) {
+            return symbol;
         }
+        return lookupSymbol(node, name, session.getMetrics());
     }
 
     /**
-     * Type inferencing for Binary Expressions.
+     * Type inferencing for Binary Expressions. Child types come from
+     * {@link #getType(ASTExpression)}, so each child is only inferred once.
      * 
      * @param ex is Binary Expression 
      * @return data type computed by expression
      */
     public ASTNode.DataType getType(ASTBinaryExpr ex)
     {
+    	ASTNode.DataType left = getType(ex.leftChild);
+    	ASTNode.DataType right = getType(ex.rightChild);
+
     	// expression are not of same type
-    	if (getType(((ASTBinaryExpr)ex).leftChild) != getType(((ASTBinaryExpr)ex).rightChild))
+    	if (left != right)
     	{
-    		addError("Values must be of same type " + ex.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.OPERAND_MISMATCH, ex, ex);
     	}
     	// operators && or || can only act on boolean types
-    	else if (boolOp(((ASTBinaryExpr)ex).operator))
+    	else if (boolOp(ex.operator))
     	{
     		return ASTNode.DataType.BOOL;
     	// arithmetic operations can only act on int types
-    	} else if (mathOp(((ASTBinaryExpr)ex).operator))
+    	} else if (mathOp(ex.operator))
     	{
-    		if ((getType(((ASTBinaryExpr)ex).leftChild) == ASTNode.DataType.INT)
-    				&& (getType(((ASTBinaryExpr)ex).rightChild) == ASTNode.DataType.INT))
+    		if (left == ASTNode.DataType.INT)
     		{
     			return ASTNode.DataType.INT;
     		}
     	// relational operations can only act on int types
-    	} else if (relOp(((ASTBinaryExpr)ex).operator))
+    	} else if (relOp(ex.operator))
     	{
-    		if ((getType(((ASTBinaryExpr)ex).leftChild) == ASTNode.DataType.INT)
-    				&& (getType(((ASTBinaryExpr)ex).rightChild) == ASTNode.DataType.INT))
+    		if (left == ASTNode.DataType.INT)
     		{
     			return ASTNode.DataType.BOOL;
     		}
     	// equality operations can only act on expression of the same type
-    	} else if (eqOp(((ASTBinaryExpr)ex).operator))
+    	} else if (eqOp(ex.operator))
     	{
-    		if ((getType(((ASTBinaryExpr)ex).leftChild) ==  (getType(((ASTBinaryExpr)ex).rightChild))))
-    		{
-    			return ASTNode.DataType.BOOL;
-    		}
-
+    		return ASTNode.DataType.BOOL;
     	}
     	return null;
     }
     
+    /**
+     * Returns the data type of an ASTExpression. The type of each node is
+     * inferred once per session and memoized in its {@link AnnotationKey#TYPE}
+     * annotation, so nested expressions are typed in linear time no matter
+     * how many checks ask for them.
+     * @param ex is ASTExpression
+     * @return data type of ASTExpression ex (null if it is ill-typed)
+     */
+    public ASTNode.DataType getType(ASTExpression ex)
+    {
+    	NodeTable table = session.getNodeTable();
+    	ASTNode.DataType type = AnnotationKey.TYPE.get(table, ex);
+    	if (type != null || AnnotationKey.TYPE.isSet(table, ex))
+    	{
+    		return type;
+    	}
+    	type = inferType(ex);
+    	AnnotationKey.TYPE.set(table, ex, type);
+    	return type;
+    }
+
     /**
      * Determines ASTExpression type and passes it
      * to appropriate type inferencing method.
      * @param ex is ASTExpression
      * @return data type of ASTExpression ex
      */
-    public ASTNode.DataType getType(ASTExpression ex)
+    protected ASTNode.DataType inferType(ASTExpression ex)
     {
     	if(ex instanceof ASTBinaryExpr)
     	{
@@ -214,7 +426,7 @@ public class TypeCheck extends StaticAnalysis
     	}
     	else
     	{
-    		addError("Invalid Expression " + ex.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.INVALID_EXPRESSION, ex, ex);
     		return null;
     	}
     }
@@ -236,17 +448,28 @@ public class TypeCheck extends StaticAnalysis
      */
     public void postVisit(ASTVoidFunctionCall node)
     {
-    	for (ASTFunction f : funcs)
+    	Symbol f = funcIndex.get(node.name);
+    	if (f == null)
     	{
-    		if (f.name.equals(node.name))
-    		{
-    			checkParams(f.parameters, node.arguments);
-    			return;
-    		}
+    		session.report(Diagnostic.Code.UNDECLARED_FUNCTION, node, node);
+    		return;
     	}
-    	addError("Calling undeclared function " + node.getSourceInfo().toString());
+    	checkParams(f, node.arguments, node);
     }
    
+    /**
+     * Overrides ASTDefaulyVisitor preVisit method.
+     * Collects the program's functions and variables and indexes function
+     * signatures before any statement is checked.
+     * @node is current ASTProgram node
+     */
+    public void preVisit(ASTProgram node)
+    {
+    	funcs.addAll(node.functions);
+    	vars.addAll(node.variables);
+    	indexFunctions(node);
+    }
+
     /**
      * Overrides ASTDefaulyVisitor postVisit method.
      * Type check for ASTProgram nodes.
@@ -254,15 +477,22 @@ public class TypeCheck extends StaticAnalysis
      */
     public void postVisit(ASTProgram node)
     {
-    	funcs.addAll(node.functions);
-    	vars.addAll(node.variables);
-    	
     	if (!checkForMain(funcs))
     	{
-    		addError("Program must contain a main function");
+    		session.report(Diagnostic.Code.MISSING_MAIN, node);
     	}
     }
       
+    /**
+     * Overrides ASTDefaultVisitor preVisit method.
+     * Enters the context of the function.
+     * @node is current ASTFunction node
+     */
+    public void preVisit(ASTFunction node)
+    {
+    	contexts.push(new Context(node));
+    }
+
     /**
      * Override ASTDefaultVisitor postVisit method.
      * Type checks function header statements.
@@ -276,16 +506,17 @@ public class TypeCheck extends StaticAnalysis
     		{
     			if(isArray(v))
     			{
-    				addError("arrays may only be declared in global scope");
+    				session.report(Diagnostic.Code.LOCAL_ARRAY, v);
     			}
     		}
-    		lookupSymbol(node, node.name);
+    		lookupSymbol(node, node.name, session.getMetrics());
     	} catch (InvalidProgramException ipe)
     	{
-    		addError("Duplicate function names " + node.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.DUPLICATE_FUNCTION, node, node);
     	}
 
     	checkReturnTypes(node);
+    	contexts.pop();
     }
     
     /**
@@ -311,12 +542,13 @@ public class TypeCheck extends StaticAnalysis
      */
     public void postVisit(ASTAssignment node)
     {
-    	ASTLocation loc = node.location;
+    	// widen the location so its type goes through the memoized lookup
+    	ASTExpression loc = node.location;
     	ASTExpression ex = node.value;
     	
     	if(getType(loc) != getType(ex))
     	{
-    		addError("Must assign value of the same type " + node.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.ASSIGNMENT_MISMATCH, node, node);
     	}
     }
     
@@ -329,7 +561,7 @@ public class TypeCheck extends StaticAnalysis
     {
     	if (getType(node.condition) != ASTNode.DataType.BOOL)
     	{
-    		addError("Condtionals must test for boolean values " + node.condition.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.CONDITIONAL_GUARD, node.condition, node.condition);
     	}
     }
     
@@ -342,7 +574,50 @@ public class TypeCheck extends StaticAnalysis
     {
     	if (getType(node.guard) != ASTNode.DataType.BOOL)
     	{
-    		addError("While loops must test for boolean values " + node.guard.getSourceInfo().toString());
+    		session.report(Diagnostic.Code.WHILE_GUARD, node.guard, node.guard);
+    	}
+    	if (!contexts.isEmpty())
+    	{
+    		contexts.peek().loopDepth--;
+    	}
+    }
+
+    /**
+     * Overrides ASTDefaultVisitor preVisit method.
+     * Enters a loop, for the break and continue checks.
+     * @node is current ASTWhileLoop node
+     */
+    public void preVisit(ASTWhileLoop node)
+    {
+    	if (!contexts.isEmpty())
+    	{
+    		contexts.peek().loopDepth++;
+    	}
+    }
+
+    /**
+     * Overrides ASTDefaultVisitor postVisit method.
+     * Checks a return statement against the return type of the enclosing
+     * function.
+     * @node is current ASTReturn node
+     */
+    public void postVisit(ASTReturn node)
+    {
+    	if (contexts.isEmpty())
+    	{
+    		return;
+    	}
+    	ASTNode.DataType returnType = contexts.peek().returnType;
+    	if (returnType == ASTNode.DataType.VOID)
+    	{
+    		if (node.hasValue())
+    		{
+    			session.report(Diagnostic.Code.VOID_RETURN_VALUE, node);
+    		}
+    	}
+    	else if (!node.hasValue() || getType(node.value) != returnType)
+    	{
+    		session.report(Diagnostic.Code.RETURN_TYPE, node, returnType, node);
     	}
     }
 
@@ -352,42 +627,43 @@ public class TypeCheck extends StaticAnalysis
      * @return data type of location
      */
     public ASTNode.DataType getType(ASTLocation node) {
-    	System.out.println("in loc.... " + node.toString());
     	try {
     		if(node.hasIndex())
     		{
     			if(getType(node.index) != ASTNode.DataType.INT)
     			{
-    				System.out.println("adding error1 " + node.toString());
-
-    				addError("Index of array must be of type INT");
+    				session.report(Diagnostic.Code.INDEX_TYPE, node.index);
     			}
     			else
     			{
-    				int length = lookupSymbol(node, node.name).length;
+    				int length = resolveSymbol(node, node.name, session).length;
     				if(length <=0)
     				{
-    					System.out.println("adding 2 " + node.toString());
-
-    					addError("Length of array must be greater than 0");
+    					session.report(Diagnostic.Code.ARRAY_LENGTH, node);
     				}
     			}
     		}
     		else
     		{
-    			Symbol s = lookupSymbol(node, node.name);
+    			Symbol s = resolveSymbol(node, node.name, session);
     			if(s.length > 1)
     			{
-    				addError("array must be followed by index");
+    				session.report(Diagnostic.Code.ARRAY_WITHOUT_INDEX, node);
     			}
     		}
 
-    		// check for duplicates within scope
-    		System.out.println("node = " + lookupSymbol(node, node.name).type);
-    		return lookupSymbol(node, node.name).type;
+    		Symbol s = resolveSymbol(node, node.name, session);
+    		if (AnalysisTrace.isEnabled())
+    		{
+    			AnalysisTrace.event("TypeCheck", node, s);
+    		}
+    		return s.type;
     	} catch (InvalidProgramException e) {
-    		System.out.println("node = " + node.toString());
-    		addError("Symbol not found:  " + node.name);
+    		if (AnalysisTrace.isEnabled())
+    		{
+    			AnalysisTrace.event("TypeCheck", node, null);
+    		}
+    		session.report(Diagnostic.Code.UNDECLARED_SYMBOL, node, node.name);
     		return null;
     	}
     }
@@ -398,17 +674,18 @@ public class TypeCheck extends StaticAnalysis
      * @return data type computed by expression
      */
     public ASTNode.DataType getType(ASTUnaryExpr node) {
+    	ASTNode.DataType child = getType(node.child);
     	if (node.operator == ASTUnaryExpr.UnaryOp.NEG) {
-    		if (getType(node.child) != ASTNode.DataType.INT) {
-    			addError("Can only negate int types " + node.getSourceInfo().toString());
+    		if (child != ASTNode.DataType.INT) {
+    			session.report(Diagnostic.Code.NEGATE_TYPE, node, node);
     		}
     	} else if (node.operator == ASTUnaryExpr.UnaryOp.NOT) {
-    		if (getType(node.child) != ASTNode.DataType.BOOL) {
-    			addError("Can only NOT boolean types " + node.getSourceInfo().toString());
+    		if (child != ASTNode.DataType.BOOL) {
+    			session.report(Diagnostic.Code.NOT_TYPE, node, node);
     		}
     	}
 
-    	return getType(node.child);
+    	return child;
     }
 
     /**
@@ -426,111 +703,62 @@ public class TypeCheck extends StaticAnalysis
      * @return data type computer by function call
      */
     public ASTNode.DataType getType(ASTFunctionCall node) {
-    	try {
-    		for (ASTFunction f : funcs)
-    		{
-    			if (f.name.equals(node.name))
-    			{
-    				checkParams(f.parameters, node.arguments);
-    				return lookupSymbol(node, node.name).type;
-    			}
-    		}
-    		
-    	} catch (InvalidProgramException e) {
-    		addError("Method not found:  " + node.name);
+    	Symbol f = funcIndex.get(node.name);
+    	if (f == null)
+    	{
+    		session.report(Diagnostic.Code.METHOD_NOT_FOUND, node, node.name);
     		return null;
-
     	}
-    	return null;
+    	checkParams(f, node.arguments, node);
+    	return f.type;
     }
     
     /**
-     * Check parameters of called function match arguments 
-     * in function call.
-     * @param p is list of parameters of called function
-     * @param args is list of arguments for function call expression
+     * Check the number and types of arguments in a call against the
+     * signature of the called function.
+     * @param f is the function symbol from the signature index
+     * @param args is list of arguments for the call
+     * @param call is the calling node (for error reporting)
      */
-    public void checkParams(List<ASTFunction.Parameter> p, List<ASTExpression> args)
+    public void checkParams(Symbol f, List<ASTExpression> args, ASTNode call)
     {
+    	if (f.ptypes.size() != args.size())
+    	{
+    		session.report(Diagnostic.Code.ARGUMENT_COUNT, call, call);
+    		return;
+    	}
     	for (int i = 0; i < args.size(); i++)
     	{
-    		if (p.get(i).type != getType(args.get(i)))
+    		if (f.ptypes.get(i) != getType(args.get(i)))
     		{
-    			addError("Arguments do not match parameters for function ");
+    			session.report(Diagnostic.Code.ARGUMENT_MISMATCH, args.get(i));
     		}
     	}
     }
     
+    /**
+     * Overrides ASTDefaultVisitor postVisit method.
+     * Checks that a break statement is inside a loop.
+     * @node is current ASTBreak node
+     */
     public void postVisit(ASTBreak node)
     {
-    	if (node.getParent() != null)
+    	if (contexts.isEmpty() || contexts.peek().loopDepth == 0)
     	{
-    		if(node.getParent() instanceof ASTBlock)
-    		{
-    			ASTNode b = node.getParent();
-    	    	if (b.getParent() != null)
-    	    	{
-
-    	    		if(b.getParent() instanceof ASTWhileLoop)
-    	    		{
-    	    			return;
-
-    	    		}
-    	    		else
-    	    		{
-    	    			addError("invalid break statement outside whileloop");
-    	    		}
-    	    	}
-	    		else
-	    		{
-	    			addError("invalid break statement outside whileloop");
-	    		}
-    		}
-    		else
-    		{
-    			addError("invalid break statement outside whileloop");
-    		}
+    		session.report(Diagnostic.Code.BREAK_OUTSIDE_LOOP, node);
     	}
-		else
-		{
-			addError("invalid break statement outside whileloop");
-		}
     }
-    
+
+    /**
+     * Overrides ASTDefaultVisitor postVisit method.
+     * Checks that a continue statement is inside a loop.
+     * @node is current ASTContinue node
+     */
     public void postVisit(ASTContinue node)
     {
-    	if (node.getParent() != null)
+    	if (contexts.isEmpty() || contexts.peek().loopDepth == 0)
     	{
-    		if(node.getParent() instanceof ASTBlock)
-    		{
-    			ASTNode b = node.getParent();
-    	    	if (b.getParent() != null)
-    	    	{
-
-    	    		if(b.getParent() instanceof ASTWhileLoop)
-    	    		{
-    	    			return;
-    	    			//System.out.println("PARENT IS while");
-
-    	    		}
-    	    		else
-    	    		{
-    	    			addError("invalid continue statement outside whileloop");
-    	    		}
-    	    	}
-	    		else
-	    		{
-	    			addError("invalid continue statement outside whileloop");
-	    		}
-    		}
-    		else
-    		{
-    			addError("invalid continue statement outside whileloop");
-    		}
+    		session.report(Diagnostic.Code.CONTINUE_OUTSIDE_LOOP, node);
     	}
-		else
-		{
-			addError("invalid continue statement outside whileloop");
-		}
     }
 }
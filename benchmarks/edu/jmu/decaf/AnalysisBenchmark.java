@@ -0,0 +1,150 @@
+package edu.jmu.decaf;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for each stage of the front end: lexing, parsing, symbol
+ * table construction and type checking, plus the whole pipeline, over every
+ * {@link ProgramGenerator.Shape}. Each stage runs on input prepared by the
+ * stages before it, so its score does not include theirs.
+ *
+ * Run {@link #main} for throughput and average time together with the GC
+ * profiler (allocation rate per operation), or select benchmarks and
+ * profilers with the usual JMH command-line options.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class AnalysisBenchmark
+{
+    /**
+     * Source text and tokens of one generated program.
+     */
+    @State(Scope.Benchmark)
+    public static class Source
+    {
+        @Param({"DEEP_EXPRESSIONS", "MANY_FUNCTIONS", "NESTED_BLOCKS",
+                "MANY_GLOBALS", "MANY_CALL_SITES"})
+        public ProgramGenerator.Shape shape;
+
+        @Param({"100", "1000"})
+        public int size;
+
+        public String text;
+        public List<Token> tokens;
+
+        @Setup(Level.Trial)
+        public void generate() throws Exception
+        {
+            text = ProgramGenerator.generate(shape, size);
+            tokens = new ArrayList<Token>((new MyDecafLexer()).lex(text));
+        }
+
+        /**
+         * @return a fresh token queue (parsing consumes it)
+         */
+        public Queue<Token> freshTokens()
+        {
+            return new ArrayDeque<Token>(tokens);
+        }
+    }
+
+    /**
+     * Freshly parsed program with parent links. Rebuilt for every
+     * invocation, since the analysis passes annotate the tree.
+     */
+    @State(Scope.Thread)
+    public static class Parsed
+    {
+        public ASTProgram program;
+
+        @Setup(Level.Invocation)
+        public void parse(Source source) throws Exception
+        {
+            program = (new MyDecafParser()).parse(source.freshTokens());
+            program.traverse(new BuildParentLinks());
+        }
+    }
+
+    /**
+     * Freshly parsed program with parent links, symbol tables and bindings
+     * (held by its session), ready to be type checked.
+     */
+    @State(Scope.Thread)
+    public static class Resolved
+    {
+        public ASTProgram program;
+        public AnalysisSession session;
+
+        @Setup(Level.Invocation)
+        public void resolve(Source source) throws Exception
+        {
+            program = (new MyDecafParser()).parse(source.freshTokens());
+            session = new AnalysisSession();
+            program.traverse(new BuildParentLinks());
+            program.traverse(new BuildSymbolTables(session));
+            program.traverse(new ResolveSymbols(session));
+        }
+    }
+
+    @Benchmark
+    public Queue<Token> lex(Source source) throws Exception
+    {
+        return (new MyDecafLexer()).lex(source.text);
+    }
+
+    @Benchmark
+    public ASTProgram parse(Source source) throws Exception
+    {
+        return (new MyDecafParser()).parse(source.freshTokens());
+    }
+
+    @Benchmark
+    public AnalysisSession buildSymbolTables(Parsed parsed)
+    {
+        AnalysisSession session = new AnalysisSession();
+        parsed.program.traverse(new BuildSymbolTables(session));
+        return session;
+    }
+
+    @Benchmark
+    public AnalysisSession typeCheck(Resolved resolved)
+    {
+        resolved.program.traverse(new TypeCheck(resolved.session));
+        return resolved.session;
+    }
+
+    @Benchmark
+    public AnalysisSession bottomUpTypeCheck(Resolved resolved)
+    {
+        resolved.program.traverse(new BottomUpTypeCheck(resolved.session));
+        return resolved.session;
+    }
+
+    @Benchmark
+    public AnalysisSession pipeline(Source source) throws Exception
+    {
+        AnalysisSession session = new AnalysisSession();
+        new AnalysisPipeline().analyze(source.text, session);
+        return session;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(AnalysisBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,111 @@
+package edu.jmu.decaf;
+
+/**
+ * Generates valid synthetic Decaf programs that stress one dimension of the
+ * front end each. All programs are deterministic, so benchmark runs stay
+ * comparable.
+ */
+public class ProgramGenerator
+{
+    /**
+     * Program shapes, each scaled by a size parameter.
+     */
+    public enum Shape
+    {
+        /** One assignment with a left-nested expression of the given depth. */
+        DEEP_EXPRESSIONS,
+        /** The given number of small functions. */
+        MANY_FUNCTIONS,
+        /** Blocks nested to the given depth, each declaring a local. */
+        NESTED_BLOCKS,
+        /** The given number of global variables, all used by main. */
+        MANY_GLOBALS,
+        /** The given number of calls to a function declared after main. */
+        MANY_CALL_SITES
+    }
+
+    /**
+     * @return source text of a program of the given shape and size
+     */
+    public static String generate(Shape shape, int size)
+    {
+        switch (shape) {
+            case DEEP_EXPRESSIONS:
+                return deepExpression(size);
+            case MANY_FUNCTIONS:
+                return manyFunctions(size);
+            case NESTED_BLOCKS:
+                return nestedBlocks(size);
+            case MANY_GLOBALS:
+                return manyGlobals(size);
+            case MANY_CALL_SITES:
+                return manyCallSites(size);
+            default:
+                throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+    }
+
+    /**
+     * Mixes arithmetic and relational operators, so both branches of the
+     * binary expression rules are exercised.
+     */
+    public static String deepExpression(int depth)
+    {
+        StringBuilder expr = new StringBuilder("1");
+        for (int i = 0; i < depth; i++) {
+            expr.insert(0, '(');
+            expr.append(i % 2 == 0 ? " + " : " * ").append(i).append(')');
+        }
+        return "def int main() { int i; bool b; i = " + expr + "; b = " + expr
+            + " < i; return 0; }";
+    }
+
+    public static String manyFunctions(int count)
+    {
+        StringBuilder text = new StringBuilder("int g; ");
+        for (int i = 0; i < count; i++) {
+            text.append("def int f").append(i).append("(int x, bool b) { int y; y = x * 2; ")
+                .append("if (b) { g = y; } return y + g; } ");
+        }
+        text.append("def int main() { return f0(1, true); }");
+        return text.toString();
+    }
+
+    public static String nestedBlocks(int depth)
+    {
+        StringBuilder text = new StringBuilder("def int main() { int v0; bool b; v0 = 0; b = true; ");
+        for (int i = 1; i <= depth; i++) {
+            text.append("if (b) { int v").append(i).append("; v").append(i)
+                .append(" = v").append(i - 1).append(" + 1; ");
+        }
+        for (int i = 1; i <= depth; i++) {
+            text.append("} ");
+        }
+        text.append("return v0; }");
+        return text.toString();
+    }
+
+    public static String manyGlobals(int count)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("int g").append(i).append("; ");
+        }
+        text.append("def int main() { ");
+        for (int i = 1; i < count; i++) {
+            text.append("g").append(i).append(" = g").append(i - 1).append("; ");
+        }
+        text.append("return 0; }");
+        return text.toString();
+    }
+
+    public static String manyCallSites(int count)
+    {
+        StringBuilder text = new StringBuilder("def int main() { int i; i = 0; ");
+        for (int i = 0; i < count; i++) {
+            text.append("i = add(i, ").append(i).append("); ");
+        }
+        text.append("return i; } def int add(int a, int b) { return a + b; }");
+        return text.toString();
+    }
+}